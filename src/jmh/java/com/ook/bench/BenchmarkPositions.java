@@ -0,0 +1,54 @@
+package com.ook.bench;
+
+import com.ook.ai.ChessAI;
+import com.ook.game.Board;
+import com.ook.game.Game;
+import com.ook.game.Piece;
+import com.ook.game.Position;
+
+/**
+ * Fixed positions shared by all benchmarks
+ */
+public class BenchmarkPositions {
+    public static final String START = Position.START_FEN;
+    public static final String KIWIPETE = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+    public static final String MIDDLEGAME = "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP2BPPP/R2QKB1R w KQ - 0 8";
+    public static final String ENDGAME = "8/5pk1/6p1/3R4/1r6/6P1/5PK1/8 b - - 0 40";
+
+    /**
+     * Looks up a position's FEN by name
+     * @param name start, kiwipete, middlegame or endgame
+     * @return the FEN string
+     */
+    public static String fen(String name) {
+        return switch (name) {
+            case "start" -> START;
+            case "kiwipete" -> KIWIPETE;
+            case "middlegame" -> MIDDLEGAME;
+            case "endgame" -> ENDGAME;
+            default -> throw new IllegalArgumentException("Unknown position: " + name);
+        };
+    }
+
+    /**
+     * Creates an IO-less game on a named position
+     * @param name the position name
+     * @return the game
+     */
+    public static Game game(String name) {
+        Position position = new Position(fen(name));
+        return new Game(new Board(position), position.getSideToMove() == Piece.WHITE);
+    }
+
+    /**
+     * Creates an AI playing the side to move in a game
+     * @param game the game
+     * @return the AI
+     */
+    public static ChessAI ai(Game game) {
+        ChessAI ai = new ChessAI("Benchmark");
+        ai.setGame(game);
+        ai.setTeam(game.whiteToPlay());
+        return ai;
+    }
+}
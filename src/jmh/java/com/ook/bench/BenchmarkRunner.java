@@ -0,0 +1,24 @@
+package com.ook.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler attached so every result
+ * reports its allocation rate (gc.alloc.rate.norm is bytes/op)
+ */
+public class BenchmarkRunner {
+    /**
+     * Main method
+     * @param args JMH command line arguments (ex. a benchmark name regex, -f 1, -wi 3)
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,61 @@
+package com.ook.bench;
+
+import com.ook.ai.ChessAI;
+import com.ook.game.Game;
+import com.ook.game.Move;
+import com.ook.game.MoveGenerator;
+import com.ook.game.Piece;
+import com.ook.game.Position;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks position evaluation and move ordering
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluationBenchmark {
+    @Param({"start", "kiwipete", "middlegame", "endgame"})
+    public String position;
+
+    private Position thePosition;
+    private ChessAI ai;
+    private boolean whiteToPlay;
+    private final int[] generated = new int[MoveGenerator.MAX_MOVES];
+    private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+    private final int[] scores = new int[MoveGenerator.MAX_MOVES];
+    private int count;
+
+    /**
+     * Sets up the game and the moves to order
+     */
+    @Setup
+    public void setUp() {
+        Game game = BenchmarkPositions.game(position);
+        ai = BenchmarkPositions.ai(game);
+        whiteToPlay = game.whiteToPlay();
+        thePosition = game.getBoard().getPosition(whiteToPlay ? Piece.WHITE : Piece.BLACK);
+        count = ai.getPossibleMoves(thePosition, generated);
+    }
+
+    @Benchmark
+    public int evaluatePosition() {
+        return ai.evaluatePosition(thePosition, whiteToPlay);
+    }
+
+    @Benchmark
+    public int[] orderMoves() {
+        // Score and pick every generated move each time rather than an already ordered buffer
+        System.arraycopy(generated, 0, moves, 0, count);
+        ai.scoreMoves(thePosition, moves, scores, count, Move.NONE);
+        for (int i = 0; i < count; i++) {
+            ChessAI.pickMove(moves, scores, i, count);
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,115 @@
+package com.ook.bench;
+
+import com.ook.ai.ChessAI;
+import com.ook.game.Board;
+import com.ook.game.Game;
+import com.ook.game.Move;
+import com.ook.game.MoveGenerator;
+import com.ook.game.Piece;
+import com.ook.game.Position;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks move generation and attack detection
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveGenerationBenchmark {
+    @Param({"start", "kiwipete", "middlegame", "endgame"})
+    public String position;
+
+    private Game game;
+    private Board board;
+    private ChessAI ai;
+    private int team;
+    private Point attackedSquare;
+    private Position thePosition;
+    private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+    private final ArrayList<Piece>[] piecesByType = new ArrayList[Piece.KING + 1];
+
+    /**
+     * Sets up the game and groups the side to move's pieces by type
+     */
+    @Setup
+    public void setUp() {
+        game = BenchmarkPositions.game(position);
+        board = game.getBoard();
+        ai = BenchmarkPositions.ai(game);
+        team = game.whiteToPlay() ? Piece.WHITE : Piece.BLACK;
+        attackedSquare = new Point(4, game.whiteToPlay() ? 2 : 5); // e3 or e6
+        thePosition = board.getPosition(team);
+
+        for (int type = Piece.PAWN; type <= Piece.KING; type++) {
+            piecesByType[type] = new ArrayList<>();
+        }
+        for (Piece piece : board.getTeamPieces(team)) {
+            piecesByType[piece.getType()].add(piece);
+        }
+    }
+
+    /**
+     * Generates the moves of all of one type of piece
+     * @param type the piece type
+     * @param blackhole consumes the moves
+     */
+    private void pieceMoves(int type, Blackhole blackhole) {
+        for (Piece piece : piecesByType[type]) {
+            ArrayList<Move> moves = Piece.getMoves(board, piece);
+            blackhole.consume(moves);
+        }
+    }
+
+    @Benchmark
+    public void pawnMoves(Blackhole blackhole) {
+        pieceMoves(Piece.PAWN, blackhole);
+    }
+
+    @Benchmark
+    public void knightMoves(Blackhole blackhole) {
+        pieceMoves(Piece.KNIGHT, blackhole);
+    }
+
+    @Benchmark
+    public void bishopMoves(Blackhole blackhole) {
+        pieceMoves(Piece.BISHOP, blackhole);
+    }
+
+    @Benchmark
+    public void rookMoves(Blackhole blackhole) {
+        pieceMoves(Piece.ROOK, blackhole);
+    }
+
+    @Benchmark
+    public void queenMoves(Blackhole blackhole) {
+        pieceMoves(Piece.QUEEN, blackhole);
+    }
+
+    @Benchmark
+    public void kingMoves(Blackhole blackhole) {
+        pieceMoves(Piece.KING, blackhole);
+    }
+
+    @Benchmark
+    public int possibleMoves() {
+        return ai.getPossibleMoves(thePosition, moves);
+    }
+
+    @Benchmark
+    public boolean isInCheck() {
+        return game.isInCheck(board);
+    }
+
+    @Benchmark
+    public boolean isBeingAttacked() {
+        return game.isBeingAttacked(board, attackedSquare);
+    }
+}
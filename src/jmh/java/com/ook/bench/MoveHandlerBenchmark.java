@@ -0,0 +1,25 @@
+package com.ook.bench;
+
+import com.ook.game.MoveHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks move notation parsing
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveHandlerBenchmark {
+    @Param({"e4", "Nbd7", "exd8=Q+", "O-O-O"})
+    public String move;
+
+    @Benchmark
+    public String[] parseMove() {
+        return MoveHandler.parseMove(move);
+    }
+}
@@ -0,0 +1,61 @@
+package com.ook.bench;
+
+import com.ook.game.Board;
+import com.ook.game.BoardRenderer;
+import com.ook.game.FileHandler;
+import com.ook.game.Game;
+import com.ook.game.ImageFormat;
+import com.ook.game.Piece;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks rendering the board image
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+    @Param({"start", "middlegame"})
+    public String position;
+
+    @Param({"false", "true"})
+    public boolean flipBoard;
+
+    @Param({"png", "indexed", "indexed small", "svg"})
+    public String format;
+
+    private Board board;
+    private boolean whiteToPlay;
+    private Piece lastMoved;
+    private Point lastMovedInitialCoords;
+    private ImageFormat imageFormat;
+    private BoardRenderer renderer;
+
+    /**
+     * Sets up the board, a last moved piece to highlight and the renderer
+     * @throws IOException if an image file is not found
+     */
+    @Setup
+    public void setUp() throws IOException {
+        Game game = BenchmarkPositions.game(position);
+        board = game.getBoard();
+        whiteToPlay = game.whiteToPlay();
+        lastMoved = board.get(6, 0); // g1
+        lastMovedInitialCoords = new Point(7, 0);
+        imageFormat = ImageFormat.parse(format.split(" "));
+        renderer = new BoardRenderer(imageFormat);
+    }
+
+    @Benchmark
+    public byte[] renderImage() throws IOException {
+        return FileHandler.encodeImage(renderer, imageFormat, board, whiteToPlay, lastMovedInitialCoords,
+                lastMoved, flipBoard);
+    }
+}
@@ -2,7 +2,10 @@ package com.ook;
 
 import com.ook.ai.ChessAI;
 import com.ook.bot.ChessBot;
+import com.ook.game.FileHandler;
 import com.ook.game.Game;
+import com.ook.game.Perft;
+import com.ook.game.Position;
 import com.ook.io.*;
 
 /**
@@ -11,13 +14,20 @@ import com.ook.io.*;
 public class Main {
     // Command usage
     private static final String USAGE = 
-        "Usage: java -jar <jarfile> console <player1> <player2> OR java -jar <jarfile> bot";
+        "Usage: java -jar <jarfile> console <player1> <player2> OR java -jar <jarfile> bot OR " +
+        "java -jar <jarfile> perft <depth> [fen|suite] [divide] [bitboard] [threads=<n>]";
     
     /**
      * Main method
      * @param args command line arguments
      */
     public static void main(String[] args) throws Exception {
+        // Count move generation nodes
+        if (args.length >= 2 && args[0].equals("perft")) {
+            perft(args);
+            return;
+        }
+
         // If bot run bot
         if (args.length == 1) {
             if (args[0].equals("bot")) {
@@ -50,13 +60,17 @@ public class Main {
                 playerName = args[1];
             }
 
+            // Console players follow the game through the board image in the game's directory
+            FileHandler.setArchiving(true);
+
             // Create Game object based on whether the player is playing the AI
-            ConsoleGameIO io = new ConsoleGameIO(args[1], args[2]);;
+            String gameId = FileHandler.gameId(args[1], args[2]);
+            ConsoleGameIO io = new ConsoleGameIO(gameId);
             Game game = null;
             if (ai != null) {
-                game = new Game(io, playerName, !aiIsPlayingWhite, ai);
+                game = new Game(io, gameId, playerName, !aiIsPlayingWhite, ai);
             } else {
-                game = new Game(io, args[1], args[2]);
+                game = new Game(io, gameId, args[1], args[2]);
             }
 
             // Play until game ends
@@ -72,10 +86,61 @@ public class Main {
                     game.takeNextMove(io.getNextInput());
                 }
             }
+            if (ai != null) {
+                ai.stopPondering();
+            }
             io.sendPGN();
             io.cleanup();
         } else {
             System.out.println(USAGE);
         }
     }
+
+    /**
+     * Runs perft with the command line arguments
+     * @param args command line arguments (perft depth [fen|suite] [divide] [bitboard] [threads=n])
+     */
+    private static void perft(String[] args) throws Exception {
+        int depth = parseNumber(args[1]);
+        if (depth < 1) { // Perft counts the moves of at least one ply
+            System.out.println(USAGE);
+            return;
+        }
+        boolean divide = false;
+        boolean bitboard = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        StringBuilder fen = new StringBuilder();
+
+        // FEN fields may be passed as one quoted argument or as separate arguments
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("divide")) {
+                divide = true;
+            } else if (args[i].equals("bitboard")) {
+                bitboard = true;
+            } else if (args[i].startsWith("threads=")) {
+                threads = parseNumber(args[i].substring("threads=".length()));
+                if (threads < 1) {
+                    System.out.println(USAGE);
+                    return;
+                }
+            } else {
+                fen.append(fen.length() == 0 ? "" : " ").append(args[i]);
+            }
+        }
+
+        Perft.run(depth, fen.length() == 0 ? Position.START_FEN : fen.toString(), divide, threads, bitboard);
+    }
+
+    /**
+     * Parses a command line number
+     * @param arg the argument
+     * @return the number, or 0 if the argument isn't a number
+     */
+    private static int parseNumber(String arg) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,594 @@
+package com.ook.ai;
+
+import com.ook.game.*;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Win/draw/loss bitbases for KQK, KRK, KPK and KBNK
+ *
+ * Each table stores one bit per position and side to move: whether the side with the extra
+ * material wins. The lone king can never win, so that bit is enough for win/draw/loss. Tables
+ * are built by retrograde analysis from the checkmates backwards and cached in a file, so
+ * they are only generated once per machine. Positions are stored with the strong side as
+ * white, and pawnless tables also use the board's 8 symmetries to keep the strong king in
+ * the a1-d1-d4 triangle.
+ */
+public class Bitbase {
+    public static final int LOSS = -1;
+    public static final int DRAW = 0;
+    public static final int WIN = 1;
+    public static final int UNKNOWN = 2; // The material is not in any table
+    public static final int MAX_SQUARES = 4; // Pieces in the largest table, kings included
+
+    private static final int MAGIC = 0x4B424242; // "KBBB"
+    private static final int VERSION = 1;
+    // Kept out of the project's resource directories so it isn't packaged into the jar
+    private static final String CACHE_FILE = System.getProperty("user.home") + "/.cache/chess/bitbases.bin";
+
+    private static final int STRONG = 0; // Side to move indices
+    private static final int WEAK = 1;
+
+    // Board symmetries: bit 0 mirrors files, bit 1 mirrors ranks, bit 2 flips the a1-h8 diagonal
+    private static final int[][] TRANSFORMS = new int[8][64];
+    private static final int[] CANONICAL = new int[64]; // First transform taking a square into the triangle
+    private static final int[] TRIANGLE = new int[64]; // Index of a square in the a1-d1-d4 triangle (-1 if outside)
+    private static final int[] TRIANGLE_SQUARES = new int[10];
+
+    static {
+        int triangleIndex = 0;
+        for (int square = 0; square < 64; square++) {
+            int x = square % Board.SIZE;
+            int y = square / Board.SIZE;
+            TRIANGLE[square] = -1;
+            if (y <= x && x < Board.SIZE / 2) {
+                TRIANGLE_SQUARES[triangleIndex] = square;
+                TRIANGLE[square] = triangleIndex++;
+            }
+        }
+        for (int t = 0; t < 8; t++) {
+            for (int square = 0; square < 64; square++) {
+                int x = square % Board.SIZE;
+                int y = square / Board.SIZE;
+                if ((t & 1) != 0) {
+                    x = Board.SIZE - 1 - x;
+                }
+                if ((t & 2) != 0) {
+                    y = Board.SIZE - 1 - y;
+                }
+                TRANSFORMS[t][square] = ((t & 4) != 0) ? Position.square(y, x) : Position.square(x, y);
+            }
+        }
+        for (int square = 0; square < 64; square++) {
+            int t = 0;
+            while (TRIANGLE[TRANSFORMS[t][square]] < 0) {
+                t++;
+            }
+            CANONICAL[square] = t;
+        }
+    }
+
+    /**
+     * One endgame: a lone king against a king and the given pieces
+     */
+    private static class Table {
+        private final int[] types;
+        private final boolean symmetric;
+        private final int size;
+        private final long[][] wins;
+
+        /**
+         * Creates an empty table
+         * @param types the strong side's pieces other than the king
+         */
+        private Table(int... types) {
+            this.types = types;
+            boolean hasPawn = false;
+            for (int type : types) {
+                hasPawn |= type == Piece.PAWN;
+            }
+            symmetric = !hasPawn;
+            size = (symmetric ? 10 : 64) << (6 * (types.length + 1));
+            wins = new long[2][(size + 63) >>> 6];
+        }
+
+        /**
+         * Gets the index of a position, moving it into its canonical orientation first
+         * @param squares the strong king, weak king and strong piece squares (strong side as white), followed
+         *                by any unused entries
+         * @return the index
+         */
+        private int index(int[] squares) {
+            int[] transform = TRANSFORMS[symmetric ? CANONICAL[squares[0]] : 0];
+            int index = symmetric ? TRIANGLE[transform[squares[0]]] : squares[0];
+            for (int i = 1; i < types.length + 2; i++) {
+                index = (index << 6) | transform[squares[i]];
+            }
+            return index;
+        }
+
+        /**
+         * Gets the squares of the position at an index
+         * @param index the index
+         * @param squares the array to write the strong king, weak king and strong piece squares into
+         */
+        private void decode(int index, int[] squares) {
+            for (int i = squares.length - 1; i > 0; i--) {
+                squares[i] = index & 63;
+                index >>>= 6;
+            }
+            squares[0] = symmetric ? TRIANGLE_SQUARES[index] : index;
+        }
+
+        /**
+         * Checks whether the strong side wins a position
+         * @param side the side to move (STRONG or WEAK)
+         * @param index the position's index
+         * @return whether the strong side wins
+         */
+        private boolean isWin(int side, int index) {
+            return (wins[side][index >>> 6] & (1L << index)) != 0;
+        }
+
+        /**
+         * Marks a position as won for the strong side
+         * @param side the side to move (STRONG or WEAK)
+         * @param index the position's index
+         */
+        private void setWin(int side, int index) {
+            wins[side][index >>> 6] |= 1L << index;
+        }
+    }
+
+    private final Table kqk = new Table(Piece.QUEEN);
+    private final Table krk = new Table(Piece.ROOK);
+    private final Table kpk = new Table(Piece.PAWN);
+    private final Table kbnk = new Table(Piece.BISHOP, Piece.KNIGHT);
+    private final Table[] tables = {kqk, krk, kpk, kbnk}; // Promotion targets come before KPK
+
+    private static final AtomicBoolean loading = new AtomicBoolean();
+    private static volatile Bitbase loaded;
+
+    private Bitbase() {}
+
+    /**
+     * Starts loading the bitbases shared by every AI on a background thread, unless already started
+     */
+    public static void loadInBackground() {
+        if (loading.compareAndSet(false, true)) {
+            Thread loader = new Thread(() -> loaded = load(), "bitbase-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    /**
+     * Gets the shared bitbases if they have finished loading, so a search never waits for them
+     * @return the bitbases (null while they are still loading or generating)
+     */
+    public static Bitbase getIfLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Loads the bitbases from the cache file, generating and caching them if it doesn't exist
+     * @return the bitbases
+     */
+    private static Bitbase load() {
+        Bitbase bitbase = new Bitbase();
+        File cache = new File(CACHE_FILE);
+        if (cache.isFile()) {
+            try (InputStream in = new FileInputStream(cache)) {
+                bitbase.read(in);
+                return bitbase;
+            } catch (IOException e) {
+                System.err.println("Could not read bitbases, regenerating: " + e.getMessage());
+                bitbase = new Bitbase();
+            }
+        }
+
+        bitbase.generate();
+        try {
+            bitbase.save(cache);
+        } catch (IOException e) {
+            System.err.println("Could not cache bitbases: " + e.getMessage());
+        }
+        return bitbase;
+    }
+
+    /**
+     * Generates every table
+     */
+    private void generate() {
+        for (Table table : tables) {
+            generate(table);
+        }
+    }
+
+    /**
+     * Saves the tables to a file
+     * @param file the file
+     * @throws IOException if the file can't be written
+     */
+    private void save(File file) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Table table : tables) {
+                for (long[] bits : table.wins) {
+                    for (long word : bits) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the tables saved by save
+     * @param in the stream to read from
+     * @throws IOException if the stream can't be read or does not hold these tables
+     */
+    private void read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a bitbase file");
+        }
+        for (Table table : tables) {
+            for (long[] bits : table.wins) {
+                for (int i = 0; i < bits.length; i++) {
+                    bits[i] = data.readLong();
+                }
+            }
+        }
+    }
+
+    /**
+     * Probes the bitbases
+     * @param position the position
+     * @param squares a buffer of at least MAX_SQUARES squares, reused between probes
+     * @return WIN, DRAW or LOSS for the side to move, or UNKNOWN if the material is not covered
+     */
+    public int probe(Position position, int[] squares) {
+        long occupied = position.getOccupied();
+        int count = Long.bitCount(occupied);
+        if (count > 4 || position.getCastlingRights() != 0) {
+            return UNKNOWN;
+        }
+        if (count == 2) {
+            return DRAW;
+        }
+
+        // Find the side with material besides its king
+        int strong;
+        if (Long.bitCount(position.getOccupancy(Piece.BLACK)) == 1) {
+            strong = Piece.WHITE;
+        } else if (Long.bitCount(position.getOccupancy(Piece.WHITE)) == 1) {
+            strong = Piece.BLACK;
+        } else {
+            return UNKNOWN;
+        }
+        long pieces = position.getOccupancy(strong) & ~position.getPieces(strong, Piece.KING);
+
+        Table table;
+        if (count == 3) {
+            int type = position.getType(Long.numberOfTrailingZeros(pieces));
+            switch (type) {
+                case Piece.QUEEN -> table = kqk;
+                case Piece.ROOK -> table = krk;
+                case Piece.PAWN -> table = kpk;
+                default -> { // A lone minor piece can't mate
+                    return DRAW;
+                }
+            }
+        } else if (position.getPieces(strong, Piece.BISHOP) != 0 && position.getPieces(strong, Piece.KNIGHT) != 0) {
+            table = kbnk;
+        } else {
+            return UNKNOWN;
+        }
+
+        // Put the strong side on white
+        int flip = (strong == Piece.WHITE) ? 0 : 56;
+        squares[0] = position.getKingSquare(strong) ^ flip;
+        squares[1] = position.getKingSquare(1 - strong) ^ flip;
+        for (int i = 0; i < table.types.length; i++) {
+            squares[i + 2] = Long.numberOfTrailingZeros(position.getPieces(strong, table.types[i])) ^ flip;
+        }
+        int side = (position.getSideToMove() == strong) ? STRONG : WEAK;
+        if (!table.isWin(side, table.index(squares))) {
+            return DRAW;
+        }
+        return (side == STRONG) ? WIN : LOSS;
+    }
+
+    /**
+     * Fills a table by retrograde analysis
+     *
+     * Checkmates (and winning promotions) seed the wins. Each round un-moves the pieces of the
+     * positions won in the last round: a strong side position that can move into a won position
+     * is won, and a weak side position is won once every one of its moves leads to a win.
+     * Positions never reached are draws.
+     * @param table the table
+     */
+    private void generate(Table table) {
+        int words = table.wins[0].length;
+        int[] squares = new int[table.types.length + 2];
+        int[] predecessor = new int[squares.length];
+        long[][] newWins = new long[2][words];
+
+        // Seed checkmates and, with a pawn, promotions into a won queen or rook ending
+        for (int index = 0; index < table.size; index++) {
+            table.decode(index, squares);
+            if (!isValid(table, squares, WEAK)) {
+                continue;
+            }
+            if (isAttacked(table, squares, squares[1], squares[1]) && countEscapes(table, squares) == 0) {
+                table.setWin(WEAK, index);
+                newWins[WEAK][index >>> 6] |= 1L << index;
+            }
+        }
+        if (table == kpk) {
+            for (int index = 0; index < table.size; index++) {
+                table.decode(index, squares);
+                int pawn = squares[2];
+                if (pawn / Board.SIZE == Board.SIZE - 2 && isValid(table, squares, STRONG) &&
+                        (occupancy(squares) & (1L << (pawn + Board.SIZE))) == 0 &&
+                        (winsAfterPromotion(kqk, squares) || winsAfterPromotion(krk, squares))) {
+                    table.setWin(STRONG, index);
+                    newWins[STRONG][index >>> 6] |= 1L << index;
+                }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            // Strong side positions that can move into a newly won weak side position
+            for (int word = 0; word < words; word++) {
+                long bits = newWins[WEAK][word];
+                while (bits != 0) {
+                    int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    table.decode(index, squares);
+                    long occupied = occupancy(squares);
+                    for (int piece = 0; piece < squares.length; piece++) {
+                        if (piece == 1) {
+                            continue; // The weak king
+                        }
+                        long origins = unmoves(table, piece, squares[piece], occupied);
+                        while (origins != 0) {
+                            int origin = Long.numberOfTrailingZeros(origins);
+                            origins &= origins - 1;
+                            System.arraycopy(squares, 0, predecessor, 0, squares.length);
+                            predecessor[piece] = origin;
+                            if (!isValid(table, predecessor, STRONG)) {
+                                continue;
+                            }
+                            int previous = table.index(predecessor);
+                            if (!table.isWin(STRONG, previous)) {
+                                table.setWin(STRONG, previous);
+                                newWins[STRONG][previous >>> 6] |= 1L << previous;
+                            }
+                        }
+                    }
+                }
+            }
+
+            // Weak side positions that can move into a newly won strong side position, once all their moves lose
+            long[] nextWeakWins = new long[words];
+            for (int word = 0; word < words; word++) {
+                long bits = newWins[STRONG][word];
+                while (bits != 0) {
+                    int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    table.decode(index, squares);
+                    long origins = Attacks.king(squares[1]) & ~occupancy(squares);
+                    while (origins != 0) {
+                        int origin = Long.numberOfTrailingZeros(origins);
+                        origins &= origins - 1;
+                        System.arraycopy(squares, 0, predecessor, 0, squares.length);
+                        predecessor[1] = origin;
+                        if (!isValid(table, predecessor, WEAK)) {
+                            continue;
+                        }
+                        int previous = table.index(predecessor);
+                        if (!table.isWin(WEAK, previous) && allMovesLose(table, predecessor)) {
+                            table.setWin(WEAK, previous);
+                            nextWeakWins[previous >>> 6] |= 1L << previous;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            newWins[WEAK] = nextWeakWins;
+            newWins[STRONG] = new long[words];
+        }
+    }
+
+    /**
+     * Checks whether a queen or rook promotion of the pawn on the seventh rank wins
+     * @param target the table of the promoted ending
+     * @param squares the KPK position, strong side to move
+     * @return whether the promoted position is won with the weak side to move
+     */
+    private static boolean winsAfterPromotion(Table target, int[] squares) {
+        int[] promoted = {squares[0], squares[1], squares[2] + Board.SIZE};
+        return target.isWin(WEAK, target.index(promoted));
+    }
+
+    /**
+     * Checks whether every move of the weak king leads to a won position for the strong side
+     * @param table the table
+     * @param squares the position, weak side to move
+     * @return whether the weak side is lost (false if it has no moves)
+     */
+    private static boolean allMovesLose(Table table, int[] squares) {
+        int[] successor = squares.clone();
+        long own = occupancy(squares) & ~(1L << squares[1]);
+        long targets = Attacks.king(squares[1]);
+        boolean hasMove = false;
+        while (targets != 0) {
+            int target = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            if (isAttacked(table, squares, target, squares[1])) {
+                continue;
+            }
+            if ((own & (1L << target)) != 0) {
+                return false; // Taking a piece leaves too little to win
+            }
+            hasMove = true;
+            successor[1] = target;
+            if (!table.isWin(STRONG, table.index(successor))) {
+                return false;
+            }
+        }
+        return hasMove;
+    }
+
+    /**
+     * Counts the weak king's legal moves
+     * @param table the table
+     * @param squares the position
+     * @return the number of squares the weak king can move to
+     */
+    private static int countEscapes(Table table, int[] squares) {
+        long targets = Attacks.king(squares[1]);
+        int count = 0;
+        while (targets != 0) {
+            int target = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            if (!isAttacked(table, squares, target, squares[1])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether the strong side attacks a square, seeing through the weak king
+     * @param table the table
+     * @param squares the position
+     * @param target the square
+     * @param weakKing the weak king's square, left out of the occupancy so sliders see through it
+     * @return whether the square is attacked
+     */
+    private static boolean isAttacked(Table table, int[] squares, int target, int weakKing) {
+        if ((Attacks.king(squares[0]) & (1L << target)) != 0) {
+            return true;
+        }
+        long occupied = occupancy(squares) & ~(1L << weakKing);
+        for (int i = 0; i < table.types.length; i++) {
+            int square = squares[i + 2];
+            if (square == target) {
+                continue; // A piece doesn't attack its own square
+            }
+            if ((attacks(table.types[i], square, occupied) & (1L << target)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the squares a strong side piece attacks (white pawns)
+     * @param type the piece type
+     * @param square the piece's square
+     * @param occupied the occupied squares
+     * @return the attacked squares
+     */
+    private static long attacks(int type, int square, long occupied) {
+        return switch (type) {
+            case Piece.PAWN -> Attacks.pawn(Piece.WHITE, square);
+            case Piece.KNIGHT -> Attacks.knight(square);
+            case Piece.BISHOP -> Attacks.bishop(square, occupied);
+            case Piece.ROOK -> Attacks.rook(square, occupied);
+            case Piece.QUEEN -> Attacks.queen(square, occupied);
+            default -> Attacks.king(square);
+        };
+    }
+
+    /**
+     * Gets the empty squares a strong side piece could have moved to its square from
+     * @param table the table
+     * @param piece the index of the piece in the position (0 for the king)
+     * @param square the piece's square
+     * @param occupied the occupied squares
+     * @return the squares the piece could have come from
+     */
+    private static long unmoves(Table table, int piece, int square, long occupied) {
+        if (piece == 0) {
+            return Attacks.king(square) & ~occupied;
+        }
+        int type = table.types[piece - 2];
+        if (type != Piece.PAWN) {
+            return attacks(type, square, occupied) & ~occupied;
+        }
+
+        // Pawns come from one square behind, or two from the second rank
+        long origins = 0;
+        int rank = square / Board.SIZE;
+        int behind = square - Board.SIZE;
+        if (rank >= 2 && (occupied & (1L << behind)) == 0) {
+            origins |= 1L << behind;
+            if (rank == 3 && (occupied & (1L << (behind - Board.SIZE))) == 0) {
+                origins |= 1L << (behind - Board.SIZE);
+            }
+        }
+        return origins;
+    }
+
+    /**
+     * Gets the occupied squares of a position
+     * @param squares the position
+     * @return the occupied squares
+     */
+    private static long occupancy(int[] squares) {
+        long occupied = 0;
+        for (int square : squares) {
+            occupied |= 1L << square;
+        }
+        return occupied;
+    }
+
+    /**
+     * Checks that a position could occur with the given side to move
+     * @param table the table
+     * @param squares the position
+     * @param side the side to move
+     * @return whether no two pieces share a square, the kings aren't touching, no pawn is on the
+     * first or last rank and the side not to move is not in check
+     */
+    private static boolean isValid(Table table, int[] squares, int side) {
+        if (Long.bitCount(occupancy(squares)) != squares.length) {
+            return false;
+        }
+        if ((Attacks.king(squares[0]) & (1L << squares[1])) != 0) {
+            return false;
+        }
+        for (int i = 0; i < table.types.length; i++) {
+            int rank = squares[i + 2] / Board.SIZE;
+            if (table.types[i] == Piece.PAWN && (rank == 0 || rank == Board.SIZE - 1)) {
+                return false;
+            }
+        }
+        return side == WEAK || !isAttacked(table, squares, squares[1], squares[1]);
+    }
+
+    /**
+     * Generates the bitbases and writes them to the cache file
+     * @param args the file to write to (optional)
+     */
+    public static void main(String[] args) throws IOException {
+        long start = System.currentTimeMillis();
+        Bitbase bitbase = new Bitbase();
+        bitbase.generate();
+        File output = new File((args.length > 0) ? args[0] : CACHE_FILE);
+        bitbase.save(output);
+        System.out.printf("Generated bitbases in %d ms to %s%n", System.currentTimeMillis() - start, output);
+    }
+}
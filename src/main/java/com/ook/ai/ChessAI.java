@@ -2,121 +2,123 @@ package com.ook.ai;
 
 import com.ook.game.*;
 
-import java.util.Scanner;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.awt.Point;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Chess AI class
  */
 public class ChessAI {
-    private static final Map<Integer, Integer> pieceValues = Map.of(
-            Piece.PAWN, 100,
-            Piece.KNIGHT, 300,
-            Piece.BISHOP, 300,
-            Piece.ROOK, 500,
-            Piece.QUEEN, 900,
-            Piece.KING, 20000
-    );
-
-    private static final Map<Integer, Integer[]> pieceSquareTables = Map.of(
-            Piece.PAWN, new Integer[]{
-                    0,  0,  0,  0,  0,  0,  0,  0,
-                    50, 50, 50, 50, 50, 50, 50, 50,
-                    10, 10, 20, 30, 30, 20, 10, 10,
-                    5,  5, 10, 25, 25, 10,  5,  5,
-                    0,  0, 10, 25, 25, 10,  0,  0,
-                    5,  0, 10,  0,  0, 10,  0,  5,
-                    5, 10, 10,-20,-20, 10, 10,  5,
-                    0,  0,  0,  0,  0,  0,  0,  0
-            },
-            Piece.KNIGHT, new Integer[]{
-                    -50,-40,-30,-30,-30,-30,-40,-50,
-                    -40,-20,  0,  0,  0,  0,-20,-40,
-                    -30,  0, 10, 15, 15, 10,  0,-30,
-                    -30,  5, 15, 20, 20, 15,  5,-30,
-                    -30,  0, 15, 20, 20, 15,  0,-30,
-                    -30,  5, 20, 15, 15, 20,  5,-30,
-                    -40,-20,  0,  5,  5,  0,-20,-40,
-                    -50,-40,-30,-30,-30,-30,-40,-50,
-            },
-            Piece.BISHOP, new Integer[]{
-                    -20,-10,-10,-10,-10,-10,-10,-20,
-                    -10,  0,  0,  0,  0,  0,  0,-10,
-                    -10,  0,  5, 10, 10,  5,  0,-10,
-                    -10,  5,  5, 10, 10,  5,  5,-10,
-                    -10,  0, 20, 10, 10, 20,  0,-10,
-                    -10, 15, 15, 10, 10, 15, 15,-10,
-                    -10,  5,  0,  0,  0,  0,  5,-10,
-                    -20,-10,-10,-10,-10,-10,-10,-20,
-            },
-            Piece.ROOK, new Integer[]{
-                    0,  0,  0,  0,  0,  0,  0,  0,
-                    5, 10, 10, 10, 10, 10, 10,  5,
-                    -5,  0,  0,  0,  0,  0,  0, -5,
-                    -5,  0,  0,  0,  0,  0,  0, -5,
-                    -5,  0,  0,  0,  0,  0,  0, -5,
-                    -5,  0,  0,  0,  0,  0,  0, -5,
-                    -5,  0,  0,  0,  0,  0,  0, -5,
-                    0,  0,  10, 10, 10, 10,  0,  0
-            },
-            Piece.QUEEN, new Integer[]{
-                    -20,-10,-10, -5, -5,-10,-10,-20,
-                    -10,  0,  0,  0,  0,  0,  0,-10,
-                    -10,  0,  5,  5,  5,  5,  0,-10,
-                    -5,  0,  5,  5,  5,  5,  0, -5,
-                     0,  0,  5,  5,  5,  5,  0, -5,
-                    -10,  5,  5,  5,  5,  5,  0,-10,
-                    -10,  0,  5,  0,  0,  0,  0,-10,
-                    -20,-10,-10, -5, -5,-10,-10,-20
-            },
-            Piece.KING, new Integer[]{
-                    -30,-40,-40,-50,-50,-40,-40,-30,
-                    -30,-40,-40,-50,-50,-40,-40,-30,
-                    -30,-40,-40,-50,-50,-40,-40,-30,
-                    -30,-40,-40,-50,-50,-40,-40,-30,
-                    -20,-30,-30,-40,-40,-30,-30,-20,
-                    -10,-20,-20,-20,-20,-20,-20,-10,
-                    10,  10,  0,  0,  0,  0, 10, 10,
-                    30,  50, 70,  0,  0, 10, 70, 30
-            },
-            Piece.KING_ENDGAME, new Integer[]{
-                    -50,-40,-30,-20,-20,-30,-40,-50,
-                    -30,-20,-10,  0,  0,-10,-20,-30,
-                    -30,-10, 20, 30, 30, 20,-10,-30,
-                    -30,-10, 30, 40, 40, 30,-10,-30,
-                    -30,-10, 30, 40, 40, 30,-10,-30,
-                    -30,-10, 20, 30, 30, 20,-10,-30,
-                    -30,-30,  0,  0,  0,  0,-30,-30,
-                    -50,-30,-30,-30,-30,-30,-30,-50
-            }
-    );
+    private static final int DEFAULT_HASH_SIZE_MB = 16;
+    private static final long DEFAULT_TIME_LIMIT_MILLIS = 3000;
+    private static final int DEFAULT_MAX_DEPTH = 64;
+    private static final int NODES_BETWEEN_TIME_CHECKS = 1024;
+    private static final int DEFAULT_THREADS = 1;
+    private static final int PONDER_TIME_FACTOR = 3; // Pondering stops after this many time limits
+    private static final int DELTA_MARGIN = 200; // Captures that can't get within this of alpha are skipped
+
+    // Scores (mate scores are reduced by the number of plies to the mate, so faster mates score higher)
+    private static final int INFINITY = 1000000;
+    private static final int MATE_SCORE = 100000;
+    private static final int ASPIRATION_MIN_DEPTH = 4;
+    private static final int ASPIRATION_WINDOW = 50;
+    private static final int KNOWN_WIN_SCORE = 50000; // Bitbase wins, below every mate score
+    private static final int NO_BITBASE_SCORE = Integer.MIN_VALUE;
+
+    // Move ordering scores: transposition table move, captures and queen promotions, killers, then history
+    private static final int HASH_MOVE_SCORE = 1 << 30;
+    private static final int CAPTURE_SCORE = 1 << 28;
+    private static final int KILLER_SCORE = 1 << 27;
+    private static final int HISTORY_MAX = 1 << 20;
+
+    // Selective search
+    private static final int NULL_MOVE_MIN_DEPTH = 3;
+    private static final int LMR_MIN_DEPTH = 3;
+    private static final int LMR_MIN_MOVES = 3; // Moves searched at full depth before reducing
+    private static final int[] FUTILITY_MARGINS = {0, 200, 500};
+    private static final int[] RAZOR_MARGINS = {0, 300, 550};
 
     private final String name;
     private Game game;
     private Board board;
     private boolean isPlayingWhite;
-    private final int searchDepth = 5;
-    private final ArrayList<String> openings;
-    private final String moveRegex = "(%1$d\\.) %2$s %2$s";
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private long timeLimitMillis = DEFAULT_TIME_LIMIT_MILLIS;
+    private long nodeLimit = 0;
+    private int threads = DEFAULT_THREADS;
+    private TranspositionTable transpositionTable;
+    private boolean nullMovePruning = true;
+    private boolean lateMoveReductions = true;
+    private boolean futilityPruning = true;
+    private boolean razoring = true;
+    private boolean bitbases = true;
+    private boolean pondering = true;
+    private SearchListener searchListener;
+    private volatile boolean cancelled;
+
+    // Search state
+    private Position position;
+    private final int[][] moveBuffers = new int[Position.MAX_PLY][MoveGenerator.MAX_MOVES];
+    private final int[][] scoreBuffers = new int[Position.MAX_PLY][MoveGenerator.MAX_MOVES];
+    private final int[][] pvTable = new int[Position.MAX_PLY][Position.MAX_PLY];
+    private final int[] pvLength = new int[Position.MAX_PLY];
+    private int[] principalVariation = new int[0];
+    private final int[][] killers = new int[Position.MAX_PLY][2];
+    private final int[][][] history = new int[2][64][64];
+    private final boolean[] nullMovePlayed = new boolean[Position.MAX_PLY];
+    private final int[] bitbaseSquares = new int[Bitbase.MAX_SQUARES];
+    private int rootDepth;
+    private volatile long searchStart;
+    private volatile long deadline;
+    private volatile boolean infinite; // Pondering: search until the opponent moves or the ponder time runs out
+    private volatile ChessAI[] helpers = new ChessAI[0];
+
+    // Pondering state
+    private Executor ponderExecutor; // Runs ponder searches (a new thread each if null)
+    private Executor helperExecutor; // Runs search helpers (a new thread each if null)
+    private AtomicBoolean ponderClaimed; // Set by whichever of the ponder search and finishPondering comes first
+    private CountDownLatch ponderDone;
+    private boolean ponderResolved; // The opponent has moved, so the ponder search was kept or stopped
+    private boolean ponderHit;
+    private long ponderKey;
+    private volatile int ponderResult;
+    private long nodes;
+    private long quiescenceNodes;
+    private volatile boolean aborted;
 
     /**
      * ChessAI constructor
      */
     public ChessAI(String name) {
         this.name = name;
-        openings = new ArrayList<>();
+        transpositionTable = new TranspositionTable(DEFAULT_HASH_SIZE_MB);
+        Bitbase.loadInBackground();
+    }
 
-        // Read opening book into string
-        Scanner reader = null;
-        try {
-            reader = new Scanner(getClass().getResourceAsStream("/openings.txt"));
-        } catch (Exception ignored) {}
-        while (reader.hasNext()) {
-            openings.add(reader.nextLine());
-        }
+    /**
+     * Creates a helper that searches on its own copy of another AI's position for parallel search
+     * @param main the AI whose search the helper joins
+     */
+    private ChessAI(ChessAI main) {
+        name = main.name;
+        transpositionTable = main.transpositionTable;
+        isPlayingWhite = main.isPlayingWhite;
+        maxDepth = main.maxDepth;
+        timeLimitMillis = main.timeLimitMillis;
+        nodeLimit = main.nodeLimit;
+        nullMovePruning = main.nullMovePruning;
+        lateMoveReductions = main.lateMoveReductions;
+        futilityPruning = main.futilityPruning;
+        razoring = main.razoring;
+        bitbases = main.bitbases;
+        searchStart = main.searchStart;
+        deadline = main.deadline;
+        infinite = main.infinite;
+        position = new Position(main.position);
     }
 
     /**
@@ -144,6 +146,133 @@ public class ChessAI {
         return isPlayingWhite;
     }
 
+    /**
+     * Replaces the transposition table with an empty one of a given size
+     * @param sizeMB the size of the table in megabytes
+     */
+    public void setHashSize(int sizeMB) {
+        transpositionTable = new TranspositionTable(sizeMB);
+    }
+
+    /**
+     * Sets the wall-clock time the AI may spend searching each move
+     * @param timeLimitMillis the time limit in milliseconds (0 for no limit)
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    /**
+     * Sets the number of nodes the AI may search for each move
+     * @param nodeLimit the node limit (0 for no limit)
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * Sets the deepest iteration the AI will search to
+     * @param maxDepth the maximum search depth
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sets the number of threads that search each move
+     * @param threads the number of search threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Turns null-move pruning on or off
+     * @param nullMovePruning whether to prune with null moves
+     */
+    public void setNullMovePruning(boolean nullMovePruning) {
+        this.nullMovePruning = nullMovePruning;
+    }
+
+    /**
+     * Turns late move reductions on or off
+     * @param lateMoveReductions whether to reduce late quiet moves
+     */
+    public void setLateMoveReductions(boolean lateMoveReductions) {
+        this.lateMoveReductions = lateMoveReductions;
+    }
+
+    /**
+     * Turns futility pruning on or off
+     * @param futilityPruning whether to skip hopeless quiet moves near the horizon
+     */
+    public void setFutilityPruning(boolean futilityPruning) {
+        this.futilityPruning = futilityPruning;
+    }
+
+    /**
+     * Turns razoring on or off
+     * @param razoring whether to drop into quiescence search at hopeless shallow nodes
+     */
+    public void setRazoring(boolean razoring) {
+        this.razoring = razoring;
+    }
+
+    /**
+     * Turns pondering on or off
+     * @param pondering whether to search the expected reply on the opponent's time
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+    }
+
+    /**
+     * Sets the executor search helpers run on, so the number of helper threads is capped by its size.
+     * Helpers it has no thread free for are left out of the search
+     * @param helperExecutor the executor (null for a new thread per helper)
+     */
+    public void setHelperExecutor(Executor helperExecutor) {
+        this.helperExecutor = helperExecutor;
+    }
+
+    /**
+     * Sets the executor ponder searches run on, so they share its threads instead of each starting one.
+     * If it has no thread free, the AI doesn't ponder
+     * @param ponderExecutor the executor (null for a new thread per ponder search)
+     */
+    public void setPonderExecutor(Executor ponderExecutor) {
+        this.ponderExecutor = ponderExecutor;
+    }
+
+    /**
+     * Sets the listener the main search reports each completed iteration to
+     * @param searchListener the listener (null for none)
+     */
+    public void setSearchListener(SearchListener searchListener) {
+        this.searchListener = searchListener;
+    }
+
+    /**
+     * Stops the current search and any later move, e.g. when the game is resigned while the AI is
+     * thinking. The search stops at its next node and the AI doesn't move again
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            for (ChessAI ai : searchers()) {
+                ai.aborted = true;
+            }
+        }
+    }
+
+    /**
+     * Turns endgame bitbase probing on or off
+     * @param bitbases whether to look up small endgames instead of searching them
+     */
+    public void setBitbases(boolean bitbases) {
+        this.bitbases = bitbases;
+    }
+
     /**
      * Gets the AI's name
      * @return the AI's name
@@ -156,388 +285,928 @@ public class ChessAI {
      * Chooses a move to play
      */
     public void move() {
-        // Filter openings by moves played in this game
-        openings.removeIf(s -> !s.startsWith(game.getPGNString()));
-        String move = null;
-        boolean bookMovePlayed = false;
-
-        if (!openings.isEmpty()) {
-            // Find next move from opening
-            String chosenOpening = openings.get((int) (Math.random() * openings.size()));
-            int moveNumber = game.getMoveNumber();
-            String regex = String.format(moveRegex, moveNumber, MoveHandler.PATTERN);
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher = pattern.matcher(chosenOpening);
-
-            if (matcher.find()) { // If a match is found, play the move
-                String[] result = matcher.group(0).split(" ");
-                move = isPlayingWhite ? result[1] : result[2];
-                bookMovePlayed = game.move(move);
-            }
-        }
-
-        if (bookMovePlayed) {
-            // Print out last move and save board
-            game.getIO().print("I play " + move);
-            game.saveBoardAndMove(move, game.getLastMoved(), game.getLastMovedInitialCoords(), true);
-        } else { // If there are no more book moves, play based on minimax search
-            Object[] evaluation = minimax(board, searchDepth, Integer.MIN_VALUE, Integer.MAX_VALUE, true,
-                    isPlayingWhite);
-            Move bestMove = (Move) evaluation[0];
-
-            // Get parameters for game move piece method
-            Point initialCoords = bestMove.getInitialCoords();
-            Piece piece = board.get(initialCoords);
-            int type = piece.getType();
-            Point destination = bestMove.getDestination();
-            Point capturedCoords = bestMove.getCapturedCoords();
-            Piece captured = board.get(capturedCoords);
-
-            // Get specifier if needed
-            int team = isPlayingWhite ? Piece.WHITE : Piece.BLACK;
-            String specifier = "";
-            for (Piece teamPiece : board.getTeamPieces(team)) {
-                if (teamPiece != piece && teamPiece.getType() == piece.getType()) {
-                    for (Move teamPieceMove : Piece.getMoves(board, teamPiece)) {
-                        if (teamPieceMove.getDestination().equals(bestMove.getDestination())) {
-                            Point teamPieceCoords = teamPiece.getLocation();
-                            if (initialCoords.x == teamPieceCoords.x) {
-                                specifier = MoveHandler.toSquare(initialCoords).substring(1);
-                            } else {
-                                specifier = MoveHandler.toSquare(initialCoords).substring(0, 1);
-                            }
+        // Play a book move while the position is in the opening book, otherwise search
+        Position current = board.getPosition(isPlayingWhite ? Piece.WHITE : Piece.BLACK);
+        int packedMove = finishPondering(current.getKey() == ponderKey);
+        if (packedMove == Move.NONE) {
+            principalVariation = new int[0]; // Only a search leaves a line to ponder on
+            packedMove = OpeningBook.getDefault().probe(current);
+        }
+        if (packedMove == Move.NONE) {
+            packedMove = search();
+        }
+        if (cancelled) {
+            return;
+        }
+        Move bestMove = Move.fromPacked(board, packedMove);
+
+        // Get parameters for game move piece method
+        Point initialCoords = bestMove.getInitialCoords();
+        Piece piece = board.get(initialCoords);
+        int type = piece.getType();
+        Point destination = bestMove.getDestination();
+        Point capturedCoords = bestMove.getCapturedCoords();
+        Piece captured = board.get(capturedCoords);
+
+        // Get specifier if needed
+        int team = isPlayingWhite ? Piece.WHITE : Piece.BLACK;
+        String specifier = "";
+        for (Piece teamPiece : board.getTeamPieces(team)) {
+            if (teamPiece != piece && teamPiece.getType() == piece.getType()) {
+                for (Move teamPieceMove : Piece.getMoves(board, teamPiece)) {
+                    if (teamPieceMove.getDestination().equals(bestMove.getDestination())) {
+                        Point teamPieceCoords = teamPiece.getLocation();
+                        if (initialCoords.x == teamPieceCoords.x) {
+                            specifier = MoveHandler.toSquare(initialCoords).substring(1);
+                        } else {
+                            specifier = MoveHandler.toSquare(initialCoords).substring(0, 1);
                         }
                     }
                 }
             }
+        }
 
-            // Check castle
-            if (piece.getType() == Piece.KING) {
-                if (destination.x == initialCoords.x + 2) { // Short castle
-                    Point rookCoords = new Point(initialCoords.x + 3, initialCoords.y);
-                    Point rookDestination = new Point(destination.x - 1, destination.y);
-                    game.legallyMovePiece(board, new Move(board.get(rookCoords), rookCoords, rookDestination,
-                                    null, null), isPlayingWhite);
-                } else if (destination.x == initialCoords.x - 2) { // Long castle
-                    Point rookCoords = new Point(initialCoords.x - 4, initialCoords.y);
-                    Point rookDestination = new Point(destination.x + 1, destination.y);
-                    game.legallyMovePiece(board, new Move(board.get(rookCoords), rookCoords, rookDestination,
-                                    null, null), isPlayingWhite);
-                }
-            }
+        // Castle through the game so the rook moves with the king
+        if (piece.getType() == Piece.KING && Math.abs(destination.x - initialCoords.x) == 2) {
+            game.castle(board, bestMove, isPlayingWhite);
+        } else {
             game.legallyMovePiece(board, bestMove, isPlayingWhite);
+        }
 
-            // Check promotion
-            if (piece.getType() == Piece.PAWN && ((isPlayingWhite && destination.y == 7) ||
-                    (!isPlayingWhite && destination.y == 0))) {
-                piece.setType(Piece.QUEEN); // Promote to queen by default (can optimize this later)
-            }
-
-            // Print out last move and save board
-            String lastMove = MoveHandler.toMoveNotation(piece, type, specifier, initialCoords, destination, captured);
-            game.getIO().print(String.format("I play %s.", lastMove));
-            game.saveBoardAndMove(lastMove, piece, initialCoords, true);
+        // Check promotion
+        if (Move.promotion(packedMove) != 0) {
+            board.promote(piece, Move.promotion(packedMove));
         }
 
+        // Print out last move and save board
+        String lastMove = MoveHandler.toMoveNotation(piece, type, specifier, initialCoords, destination, captured);
+        game.getIO().print(String.format("I play %s.", lastMove));
+        game.saveBoardAndMove(lastMove, piece, initialCoords, true);
+
         // Check game end, prompt next move from player
         game.toggleTurn();
         game.checkGameEnd();
         if (!game.ended()) {
             game.promptNextMove();
+            startPondering(packedMove);
         }
     }
 
     /**
-     * Gets all possible moves for the current position
-     * @return a HashMap of all possible moves and their pieces
+     * Starts searching the position after the opponent's expected reply in the background, so the
+     * time the opponent spends thinking isn't wasted. The ponder search uses a single thread and
+     * stops after PONDER_TIME_FACTOR time limits if the opponent hasn't moved by then
+     * @param playedMove the packed move just played
      */
-    public ArrayList<Move> getPossibleMoves(Board theBoard, int team) {
-        ArrayList<Move> possibleMoves = new ArrayList<>();
+    private void startPondering(int playedMove) {
+        if (!pondering || principalVariation.length < 2 ||
+                (principalVariation[0] & Move.IDENTITY_MASK) != (playedMove & Move.IDENTITY_MASK)) {
+            return;
+        }
 
-        // Get all possible moves
-        for (Piece piece : theBoard.getTeamPieces(team)) {
-            for (Move move : Piece.getMoves(theBoard, piece)) {
-                Point initialCoords = move.getInitialCoords();
-                Point destination = move.getDestination();
-                Piece captured = move.getCaptured();
-                Point capturedCoords = move.getCapturedCoords();
+        // The board has the AI's move, so the opponent is to move
+        Position ponderPosition = board.getPosition(isPlayingWhite ? Piece.BLACK : Piece.WHITE);
+        ponderPosition.makeMove(principalVariation[1]);
+        ponderPosition = new Position(ponderPosition); // Search from ply 0
+        ponderKey = ponderPosition.getKey();
 
-                if (piece.getType() == Piece.PAWN) { // Check en passant
-                    boolean enPassant = game.checkEnPassant(theBoard, move);
+        Position root = ponderPosition;
+        AtomicBoolean claimed = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        Runnable ponder = () -> {
+            if (!claimed.compareAndSet(false, true)) { // Finished before it started
+                return;
+            }
+            try {
+                ponderResult = search(root);
+            } finally {
+                done.countDown();
+            }
+        };
+        aborted = false;
+        infinite = true;
+        ponderResult = Move.NONE;
+        synchronized (this) {
+            ponderClaimed = claimed;
+            ponderDone = done;
+            ponderResolved = false;
+        }
+        try {
+            runInBackground(ponderExecutor, ponder, name + " ponder");
+        } catch (RejectedExecutionException e) {
+            finishPondering(false); // No thread to spare, so don't ponder
+        }
+    }
 
-                    // If not en passant and the destination is on a different column and the
-                    // move is not a capture, it's an illegal move
-                    if (!enPassant) {
-                        if (captured == null && destination.x != initialCoords.x) {
-                            continue;
-                        }
-                        // Or if something is captured but the destination and captured coordinates are different,
-                        // it's illegal
-                        else if (capturedCoords != null && !capturedCoords.equals(destination)) {
-                            continue;
-                        }
+    /**
+     * Keeps or stops the ponder search as soon as the opponent has moved, without waiting for it. If the
+     * opponent played the expected reply, the ponder search carries on as a normal search, with the time
+     * already spent pondering counted towards the time limit; otherwise it is stopped and only what it
+     * stored in the transposition table is kept. The next move picks up the result
+     */
+    public void opponentMoved() {
+        long key = board.getPosition(isPlayingWhite ? Piece.WHITE : Piece.BLACK).getKey();
+        synchronized (this) {
+            resolvePondering(key == ponderKey);
+        }
+    }
+
+    /**
+     * Keeps the ponder search going as a normal search or stops it, unless that was already decided
+     * @param hit whether the opponent played the expected reply
+     */
+    private synchronized void resolvePondering(boolean hit) {
+        if (ponderClaimed == null || ponderResolved) {
+            return;
+        }
+        ponderResolved = true;
+        ponderHit = hit;
+        if (hit) {
+            for (ChessAI ai : searchers()) {
+                ai.deadline = (timeLimitMillis > 0) ? ai.searchStart + timeLimitMillis : Long.MAX_VALUE;
+                ai.infinite = false;
+            }
+        } else {
+            aborted = true;
+        }
+    }
+
+    /**
+     * Waits for the ponder search once the opponent has moved, keeping or stopping it first if that
+     * wasn't already decided. A ponder search that hasn't started yet never runs
+     * @param hit whether the opponent played the expected reply
+     * @return the packed best move of the ponder search on a hit, otherwise Move.NONE
+     */
+    private int finishPondering(boolean hit) {
+        AtomicBoolean claimed;
+        CountDownLatch done;
+        synchronized (this) {
+            resolvePondering(hit);
+            claimed = ponderClaimed;
+            done = ponderDone;
+            if (claimed == null) {
+                return Move.NONE;
+            }
+            ponderClaimed = null;
+            ponderDone = null;
+            hit = ponderHit;
+        }
+        if (claimed.compareAndSet(false, true)) { // The ponder search never started
+            infinite = false;
+            return Move.NONE;
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        infinite = false;
+        return hit ? ponderResult : Move.NONE;
+    }
+
+    /**
+     * Runs a search task on an executor, or on a new daemon thread without one
+     * @param executor the executor (null for a new thread)
+     * @param task the task
+     * @param threadName the name of the new thread
+     * @throws RejectedExecutionException if the executor has no room for the task
+     */
+    private static void runInBackground(Executor executor, Runnable task, String threadName) {
+        if (executor != null) {
+            executor.execute(task);
+            return;
+        }
+        Thread thread = new Thread(task, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops pondering without using the result, e.g. when the game ends on the opponent's move
+     */
+    public void stopPondering() {
+        finishPondering(false);
+    }
+
+    /**
+     * Gets this AI and its search helpers
+     * @return every AI searching the current position
+     */
+    private List<ChessAI> searchers() {
+        List<ChessAI> searchers = new ArrayList<>(Arrays.asList(helpers));
+        searchers.add(this);
+        return searchers;
+    }
+
+    /**
+     * Searches the current position with iterative deepening until the time or node limit runs out
+     *
+     * With more than one thread, helper threads search the same position on their own position
+     * copies (starting at staggered depths) and share the transposition table, so the main
+     * search finds deeper results in the table. The main thread's move is played.
+     * @return the packed best move of the deepest completed iteration
+     */
+    public int search() {
+        aborted = cancelled;
+        infinite = false;
+        return search(board.getPosition(isPlayingWhite ? Piece.WHITE : Piece.BLACK));
+    }
+
+    /**
+     * Searches a position for the best move
+     * @param root the position, at ply 0
+     * @return the packed best move
+     */
+    private int search(Position root) {
+        transpositionTable.newSearch();
+        clearOrdering();
+        position = root;
+
+        // Start helpers, half of them one depth ahead. Pondering searches alone so it doesn't tie up
+        // threads while the opponent thinks
+        int helperCount = infinite ? 0 : threads - 1;
+        AtomicBoolean[] helpersClaimed = new AtomicBoolean[helperCount]; // Set once a helper starts or is dropped
+        CountDownLatch helpersDone = new CountDownLatch(helperCount);
+        synchronized (this) {
+            searchStart = System.currentTimeMillis();
+            long timeLimit = infinite ? PONDER_TIME_FACTOR * timeLimitMillis : timeLimitMillis;
+            deadline = (timeLimit > 0) ? searchStart + timeLimit : Long.MAX_VALUE;
+            helpers = new ChessAI[helperCount];
+            for (int i = 0; i < helpers.length; i++) {
+                ChessAI helper = new ChessAI(this);
+                int startDepth = 1 + (i + 1) % 2;
+                AtomicBoolean claimed = new AtomicBoolean();
+                helpers[i] = helper;
+                helpersClaimed[i] = claimed;
+                Runnable helperSearch = () -> {
+                    if (!claimed.compareAndSet(false, true)) { // The main search finished first
+                        return;
                     }
-                } else if (piece.getType() == Piece.KING) { // Can't castle when in check
-                    int distance = destination.x - initialCoords.x;
-                    if (Math.abs(distance) == 2) {
-                        int direction = distance / Math.abs(distance);
-                        if (Math.abs(destination.x - initialCoords.x) == 2) {
-                            if (game.isInCheck(theBoard)) {
-                                continue;
-                            }
-
-                            // Check if any of the squares in the castling path are being attacked
-                            Point checkSquare = new Point(piece.getLocation());
-                            boolean squareAttacked = false;
-                            while (checkSquare.x != destination.x) {
-                                if (game.isBeingAttacked(theBoard, checkSquare)) {
-                                    squareAttacked = true;
-                                    break;
-                                }
-                                checkSquare.translate(direction, 0);
-                            }
-                            if (squareAttacked) {
-                                continue;
-                            }
-                        }
+                    try {
+                        helper.iterativeDeepening(startDepth);
+                    } finally {
+                        helpersDone.countDown();
                     }
+                };
+                try {
+                    runInBackground(helperExecutor, helperSearch, name + " search helper " + (i + 1));
+                } catch (RejectedExecutionException e) {
+                    // No thread to spare, so search without this helper
                 }
+            }
+        }
+
+        int bestMove = iterativeDeepening(1);
 
-                // Add move
-                possibleMoves.add(move);
+        // Stop the helpers once the main search is done, dropping any that never started
+        for (ChessAI helper : helpers) {
+            helper.aborted = true;
+        }
+        for (AtomicBoolean claimed : helpersClaimed) {
+            if (claimed.compareAndSet(false, true)) {
+                helpersDone.countDown();
             }
         }
+        try {
+            helpersDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
-        return possibleMoves;
+        return bestMove;
     }
 
     /**
-     * Evaluates the current position
-     * @param theBoard the board to evaluate the position for
-     * @param isMaximizerWhite whether white is trying to maximize the evaluation
-     * @return the position evaluation in terms of material
+     * Runs iterative deepening on this AI's position
+     *
+     * From ASPIRATION_MIN_DEPTH on, each iteration first searches a narrow window around the
+     * previous iteration's score and widens it whenever the score falls outside.
+     * @param startDepth the depth of the first iteration
+     * @return the packed best move of the deepest completed iteration
      */
-    public int evaluatePosition(Board theBoard, boolean isMaximizerWhite) {
-        int whiteEval = 0;
-        int blackEval = 0;
-        int multiplier = 3;
-        boolean endgame = (board.getTeamPieces(Piece.WHITE).size() == 8 &&
-                board.getTeamPieces(Piece.BLACK).size() == 8); // Decide whether it's endgame by counting pieces
+    private int iterativeDeepening(int startDepth) {
+        nodes = 0;
+        quiescenceNodes = 0;
+        int bestMove = Move.NONE;
+        int previousScore = 0;
 
-        // Add up material for both sides
-        for (Piece piece : theBoard.getTeamPieces(Piece.WHITE)) {
-            Point loc = piece.getLocation();
+        // Each iteration searches the previous iteration's best moves first through the transposition table
+        for (int depth = startDepth; depth <= maxDepth; depth++) {
+            rootDepth = depth;
+            int window = ASPIRATION_WINDOW;
+            int alpha = -INFINITY;
+            int beta = INFINITY;
+            if (depth >= ASPIRATION_MIN_DEPTH && !isMateScore(previousScore)) {
+                alpha = previousScore - window;
+                beta = previousScore + window;
+            }
 
-            whiteEval += pieceValues.get(piece.getType());
+            int score;
+            while (true) {
+                score = negamax(position, depth, alpha, beta);
+                if (aborted) {
+                    break;
+                }
 
-            // Add piece square table value
-            int tableLoc = loc.x + (Board.SIZE - loc.y - 1) * Board.SIZE;
-            if (piece.getType() == Piece.KING && endgame) {
-                whiteEval += multiplier * pieceSquareTables.get(Piece.KING_ENDGAME)[tableLoc];
-            } else {
-                whiteEval += multiplier * pieceSquareTables.get(piece.getType())[tableLoc];
+                // Widen the side of the window the score fell out of
+                if (score <= alpha) {
+                    window *= 2;
+                    alpha = Math.max(score - window, -INFINITY);
+                } else if (score >= beta) {
+                    window *= 2;
+                    beta = Math.min(score + window, INFINITY);
+                } else {
+                    break;
+                }
+            }
+            if (aborted) {
+                break;
+            }
+            previousScore = score;
+            if (pvLength[0] > 0) {
+                bestMove = pvTable[0][0];
+                principalVariation = Arrays.copyOf(pvTable[0], pvLength[0]);
+            }
+            if (searchListener != null && !infinite) {
+                searchListener.iterationCompleted(depth, score, bestMove);
+            }
+
+            // Stop on a forced mate or if the next iteration is unlikely to finish in time
+            long elapsed = System.currentTimeMillis() - searchStart;
+            if (isMateScore(score) || (!infinite && timeLimitMillis > 0 && elapsed > timeLimitMillis / 2)) {
+                break;
             }
         }
-        for (Piece piece : theBoard.getTeamPieces(Piece.BLACK)) {
-            Point loc = piece.getLocation();
 
-            blackEval += pieceValues.get(piece.getType());
+        return bestMove;
+    }
 
-            // Add piece square table value
-            int tableLoc = loc.x + (Board.SIZE - loc.y - 1) * Board.SIZE;
-            if (piece.getType() == Piece.KING && endgame) {
-                blackEval += multiplier * pieceSquareTables.get(Piece.KING_ENDGAME)[tableLoc];
-            } else {
-                blackEval += multiplier * pieceSquareTables.get(piece.getType())[tableLoc];
-            }
+    /**
+     * Returns whether a score is a forced mate for either side
+     * @param score the score
+     * @return whether the score is a mate score
+     */
+    private static boolean isMateScore(int score) {
+        return Math.abs(score) >= MATE_SCORE - Position.MAX_PLY;
+    }
+
+    /**
+     * Checks whether the search has run out of time or nodes
+     * @return whether the search should be aborted
+     */
+    private boolean shouldAbort() {
+        // The first iteration always completes so there is a move to play
+        if (rootDepth == 1) {
+            return false;
+        }
+        long totalNodes = nodes + quiescenceNodes;
+        if (nodeLimit > 0 && totalNodes >= nodeLimit) {
+            return true;
         }
+        return totalNodes % NODES_BETWEEN_TIME_CHECKS == 0 && System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * Gets the number of main search nodes visited by the last search
+     * @return the node count
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Gets the number of quiescence nodes visited by the last search
+     * @return the quiescence node count
+     */
+    public long getQuiescenceNodes() {
+        return quiescenceNodes;
+    }
+
+    /**
+     * Gets the principal variation (expected line of play) of the last completed iteration
+     * @return the packed moves of the line, starting with the best move
+     */
+    public int[] getPrincipalVariation() {
+        return principalVariation;
+    }
+
+    /**
+     * Gets all legal moves for the side to move
+     * @param thePosition the position
+     * @param moves the buffer to write packed moves into
+     * @return the number of moves
+     */
+    public int getPossibleMoves(Position thePosition, int[] moves) {
+        return MoveGenerator.generate(thePosition, moves);
+    }
+
+    /**
+     * Evaluates the current position from the position's running material and piece square scores
+     * @param thePosition the position to evaluate
+     * @param isMaximizerWhite whether white is trying to maximize the evaluation
+     * @return the position evaluation in terms of material
+     */
+    public int evaluatePosition(Position thePosition, boolean isMaximizerWhite) {
+        int evaluation = Evaluation.evaluate(thePosition);
 
         // Return difference based on whose turn it is
-        return isMaximizerWhite ? whiteEval - blackEval : blackEval - whiteEval;
+        return isMaximizerWhite ? evaluation : -evaluation;
     }
 
     /**
-     * Minimax algorithm to calculate best next move
-     * @param theBoard the chessboard
+     * Negamax alpha-beta search with principal variation search
+     *
+     * Scores are from the side to move's point of view. The first move is searched with the full
+     * window and later moves with a null window, re-searched only if they beat alpha. The best
+     * line is recorded in the triangular PV table. Moves are generated into this AI's per-ply
+     * buffers and made and unmade on the position, so the search doesn't allocate.
+     * @param thePosition the position
      * @param depth the depth of moves to search
-     * @param alpha the best evaluation the maximizer can achieve for the current position
-     * @param beta the best evaluation the minimizer can achieve for the current position
-     * @param maximizer whether the current search is for the maximizer
-     * @param isMaximizerWhite whether white is trying to maximize the evaluation
-     * @return the best move and its evaluation
+     * @param alpha the score the side to move is already guaranteed
+     * @param beta the score the opponent is already guaranteed (as a bound for the side to move)
+     * @return the score
      */
-    public Object[] minimax(Board theBoard, int depth, int alpha, int beta, boolean maximizer,
-                            boolean isMaximizerWhite) {
-        if (depth <= 0) { // Return just the evaluation of the current position
-            return new Object[] {null, evaluatePosition(theBoard, isMaximizerWhite)};
+    public int negamax(Position thePosition, int depth, int alpha, int beta) {
+        int ply = thePosition.getPly();
+        pvLength[ply] = ply;
+
+        // Small endgames are looked up: draws end the search (the root always searches for a move),
+        // and wins and losses are still searched for the mate but scored by the bitbase at the horizon
+        if (ply > 0) {
+            int score = bitbaseScore(thePosition);
+            if (score == 0 || (score != NO_BITBASE_SCORE && depth <= 0)) {
+                return score;
+            }
+        }
+        if (depth <= 0) { // Settle captures before evaluating the position
+            return quiescence(thePosition, alpha, beta);
         }
 
-        Move bestMove;
+        nodes++;
+        if (aborted || shouldAbort()) { // Out of time - the result of this iteration is discarded
+            aborted = true;
+            return 0;
+        }
 
-        if (maximizer) { // Maximizing player
-            int team = isPlayingWhite ? Piece.WHITE : Piece.BLACK;
-            int opps = isPlayingWhite ? Piece.BLACK : Piece.WHITE;
+        // Look up the position in the transposition table
+        long key = thePosition.getKey();
+        long entry = transpositionTable.probe(key);
+        int hashMove = Move.NONE;
+        if (entry != TranspositionTable.NO_ENTRY) {
+            hashMove = TranspositionTable.move(entry);
 
-            int maxEval = Integer.MIN_VALUE;
-            ArrayList<Move> possibleMoves = orderMoves(team, getPossibleMoves(theBoard, team));
-            if (possibleMoves.size() == 0) { // Has no moves = game ended
-                if (game.isInCheck(theBoard)) { // Getting checkmated
-                    return new Object[] {null, Integer.MIN_VALUE};
+            // Reuse the stored score if it was searched deep enough (the root always searches for a move)
+            if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                int score = scoreFromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT ||
+                        (bound == TranspositionTable.LOWER_BOUND && score >= beta) ||
+                        (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+                    return score;
                 }
-                return new Object[] {null, 0}; // Draw
             }
+        }
+        int alphaOriginal = alpha;
 
-            bestMove = possibleMoves.get((int) (Math.random() * possibleMoves.size()));
+        int team = thePosition.getSideToMove();
+        boolean inCheck = thePosition.isInCheck(team);
+        boolean canPrune = ply > 0 && !inCheck;
+        int staticEval = canPrune ? evaluatePosition(thePosition, team == Piece.WHITE) : 0;
 
-            // Loop through possible moves
-            for (Move move : possibleMoves) {
-                Piece piece = move.getPiece();
-                Point initialCoords = move.getInitialCoords();
-                Piece captured = move.getCaptured();
-                Point capturedCoords = move.getCapturedCoords();
+        // Razoring: far below alpha near the horizon, only captures could save the position
+        if (razoring && canPrune && depth < RAZOR_MARGINS.length && staticEval + RAZOR_MARGINS[depth] <= alpha) {
+            int score = quiescence(thePosition, alpha, beta);
+            if (score <= alpha) {
+                return score;
+            }
+        }
 
-                // Make the move
-                boolean validMove = game.legallyMovePiece(theBoard, move, isPlayingWhite);
-                if (!validMove) {
-                    continue;
-                }
+        // Null-move pruning: if passing still beats beta, a real move will too. Skipped right after
+        // another null move and without pieces other than pawns, where zugzwang makes passing unsound
+        nullMovePlayed[ply] = false;
+        if (nullMovePruning && canPrune && depth >= NULL_MOVE_MIN_DEPTH && staticEval >= beta &&
+                !nullMovePlayed[ply - 1] && hasNonPawnMaterial(thePosition, team)) {
+            int reduction = (depth > 6) ? 3 : 2;
+            nullMovePlayed[ply] = true;
+            thePosition.makeNullMove();
+            int score = -negamax(thePosition, depth - 1 - reduction, -beta, -beta + 1);
+            thePosition.unmakeNullMove();
+            nullMovePlayed[ply] = false;
+            if (aborted) {
+                return 0;
+            }
+            if (score >= beta) {
+                return beta;
+            }
+        }
+
+        // Futility pruning: quiet moves can't raise a hopeless score near the horizon
+        boolean futile = futilityPruning && canPrune && depth < FUTILITY_MARGINS.length &&
+                staticEval + FUTILITY_MARGINS[depth] <= alpha;
+
+        int[] moves = moveBuffers[ply];
+        int count = getPossibleMoves(thePosition, moves);
+        if (count == 0) { // Has no moves = game ended
+            return inCheck ? -MATE_SCORE + ply : 0; // Checkmate (sooner is worse) or stalemate
+        }
+        int[] scores = scoreBuffers[ply];
+        scoreMoves(thePosition, moves, scores, count, hashMove);
+
+        int bestScore = -INFINITY;
+        int bestMove = Move.NONE;
 
-                // Get the evaluation by recursively calling minimax at depth - 1
-                Object[] evaluation = minimax(theBoard, depth - 1, alpha, beta, false, isMaximizerWhite);
+        // Loop through possible moves, best scored first
+        for (int i = 0; i < count; i++) {
+            int move = pickMove(moves, scores, i, count);
+            boolean quiet = isQuiet(move);
 
-                // Undo the move
-                game.undoMovePiece(theBoard, piece, initialCoords, captured, capturedCoords,
-                        theBoard.getTeamPieces(opps));
+            thePosition.makeMove(move);
+            boolean givesCheck = thePosition.isInCheck(1 - team);
 
-                // Store max evaluation and best move
-                int evaluationValue = (int) evaluation[1];
-                if (evaluationValue > maxEval) {
-                    maxEval = evaluationValue;
-                    bestMove = move;
+            if (futile && quiet && !givesCheck && bestMove != Move.NONE) {
+                thePosition.unmakeMove();
+                continue;
+            }
+
+            int score;
+            if (i == 0) {
+                score = -negamax(thePosition, depth - 1, -beta, -alpha);
+            } else {
+                // Late quiet moves are searched shallower
+                int reduction = 0;
+                if (lateMoveReductions && canPrune && quiet && !givesCheck && depth >= LMR_MIN_DEPTH &&
+                        i >= LMR_MIN_MOVES) {
+                    reduction = (i >= 2 * LMR_MIN_MOVES + 3) ? 2 : 1;
                 }
 
-                // Prune branch as needed
-                alpha = Integer.max(alpha, evaluationValue);
-                if (beta <= alpha) {
-                    break;
+                // Null window first, re-searched at full depth and then with the full window only if
+                // the move turns out better than the first
+                score = -negamax(thePosition, depth - 1 - reduction, -alpha - 1, -alpha);
+                if (reduction > 0 && score > alpha && !aborted) {
+                    score = -negamax(thePosition, depth - 1, -alpha - 1, -alpha);
                 }
+                if (score > alpha && score < beta && !aborted) {
+                    score = -negamax(thePosition, depth - 1, -beta, -alpha);
+                }
+            }
+
+            thePosition.unmakeMove();
+            if (aborted) {
+                return 0;
             }
-            return new Object[]{bestMove, maxEval};
-        } else { // Minimizing player
-            int team = isPlayingWhite ? Piece.BLACK : Piece.WHITE;
-            int opps = isPlayingWhite ? Piece.WHITE : Piece.BLACK;
 
-            int minEval = Integer.MAX_VALUE;
-            ArrayList<Move> possibleMoves = orderMoves(team, getPossibleMoves(theBoard, team));
-            if (possibleMoves.size() == 0) { // Has no moves = game ended
-                if (game.isInCheck(theBoard)) { // Getting checkmated
-                    return new Object[] {null, Integer.MAX_VALUE};
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+            }
+            if (score > alpha) {
+                alpha = score;
+                updatePrincipalVariation(ply, move);
+            }
+            if (alpha >= beta) {
+                if (quiet) {
+                    updateQuietCutoff(move, ply, depth, team);
                 }
-                return new Object[] {null, 0}; // Draw
+                break;
             }
+        }
 
-            bestMove = possibleMoves.get((int) (Math.random() * possibleMoves.size()));
+        storeResult(key, depth, ply, alphaOriginal, beta, bestScore, bestMove);
+        return bestScore;
+    }
 
-            // Loop through possible moves
-            for (Move move : possibleMoves) {
-                Piece piece = move.getPiece();
-                Point initialCoords = move.getInitialCoords();
-                Piece captured = move.getCaptured();
-                Point capturedCoords = move.getCapturedCoords();
+    /**
+     * Records a move followed by the child's principal variation as the principal variation of a ply
+     * @param ply the ply the move was played at
+     * @param move the packed move
+     */
+    private void updatePrincipalVariation(int ply, int move) {
+        int[] line = pvTable[ply];
+        int[] childLine = pvTable[ply + 1];
+        line[ply] = move;
+        int childLength = pvLength[ply + 1];
+        System.arraycopy(childLine, ply + 1, line, ply + 1, childLength - (ply + 1));
+        pvLength[ply] = Math.max(childLength, ply + 1);
+    }
 
-                // Make the move
-                boolean validMove = game.legallyMovePiece(theBoard, move, !isPlayingWhite);
-                if (!validMove) {
-                    continue;
-                }
+    /**
+     * Scores a position from the endgame bitbases
+     *
+     * Won positions score between the material and mate scores, plus a bonus for progress
+     * (pushing the pawn, or driving the lone king into a corner with the strong king close by),
+     * so the search keeps to won positions and still heads for the mate.
+     * @param thePosition the position
+     * @return the score for the side to move, or NO_BITBASE_SCORE if the position is not in the bitbases
+     */
+    private int bitbaseScore(Position thePosition) {
+        if (!bitbases || Long.bitCount(thePosition.getOccupied()) > 4) {
+            return NO_BITBASE_SCORE;
+        }
+        Bitbase bitbase = Bitbase.getIfLoaded();
+        int result = (bitbase == null) ? Bitbase.UNKNOWN : bitbase.probe(thePosition, bitbaseSquares);
+        if (result == Bitbase.UNKNOWN) {
+            return NO_BITBASE_SCORE;
+        }
+        if (result == Bitbase.DRAW) {
+            return 0;
+        }
 
-                // Get the evaluation by recursively calling minimax at depth - 1
-                Object[] evaluation = minimax(theBoard, depth - 1, alpha, beta, true, isMaximizerWhite);
+        int team = thePosition.getSideToMove();
+        int score = KNOWN_WIN_SCORE + winningProgress(thePosition, (result == Bitbase.WIN) ? team : 1 - team);
+        return (result == Bitbase.WIN) ? score : -score;
+    }
 
-                // Undo the move
-                game.undoMovePiece(theBoard, piece, initialCoords, captured, capturedCoords,
-                        theBoard.getTeamPieces(opps));
+    /**
+     * Scores how close the winning side of a bitbase win is to converting it
+     * @param thePosition the position
+     * @param strong the winning team
+     * @return the winning team's material plus its progress bonus
+     */
+    private static int winningProgress(Position thePosition, int strong) {
+        int score = 0;
+        for (int type = Piece.PAWN; type <= Piece.QUEEN; type++) {
+            score += Evaluation.PIECE_VALUES[type] * Long.bitCount(thePosition.getPieces(strong, type));
+        }
 
-                // Store min evaluation and best move
-                int evaluationValue = (int) evaluation[1];
-                if (evaluationValue < minEval) {
-                    minEval = evaluationValue;
-                    bestMove = move;
-                }
+        // Push the pawn towards promotion
+        long pawns = thePosition.getPieces(strong, Piece.PAWN);
+        if (pawns != 0) {
+            int rank = Long.numberOfTrailingZeros(pawns) / Board.SIZE;
+            return score + 20 * ((strong == Piece.WHITE) ? rank : Board.SIZE - 1 - rank);
+        }
 
-                // Prune branch as needed
-                beta = Integer.min(beta, evaluationValue);
-                if (beta <= alpha) {
-                    break;
-                }
-            }
-            return new Object[]{bestMove, minEval};
+        // Drive the lone king to the edge, or with a bishop and knight to a corner of the bishop's colour
+        int strongKing = thePosition.getKingSquare(strong);
+        int weakKing = thePosition.getKingSquare(1 - strong);
+        int x = weakKing % Board.SIZE;
+        int y = weakKing / Board.SIZE;
+        long bishops = thePosition.getPieces(strong, Piece.BISHOP);
+        if (bishops != 0) {
+            int bishop = Long.numberOfTrailingZeros(bishops);
+            boolean darkSquares = (bishop % Board.SIZE + bishop / Board.SIZE) % 2 == 0; // a1 is dark
+            int cornerDistance = darkSquares ? Math.min(x + y, 14 - x - y) : Math.min(7 - x + y, 7 + x - y);
+            score += 20 * (14 - cornerDistance);
+        } else {
+            score += 10 * (Math.max(3 - x, x - 4) + Math.max(3 - y, y - 4));
         }
+
+        // Bring the kings together
+        int kingDistance = Math.abs(strongKing % Board.SIZE - x) + Math.abs(strongKing / Board.SIZE - y);
+        return score + 4 * (14 - kingDistance);
     }
 
     /**
-     * Orders a list of moves based on a move score guess
-     * @param team the team the moves are for
-     * @param moves the list of moves to order
-     * @return a list of ordered moves
+     * Returns whether a team has pieces other than pawns and its king
+     * @param thePosition the position
+     * @param team the team
+     * @return whether the team has a knight, bishop, rook or queen
      */
-    public ArrayList<Move> orderMoves(int team, ArrayList<Move> moves) {
-        int oppTeam = (team == Piece.WHITE) ? Piece.BLACK : Piece.WHITE;
-        ArrayList<Move> movesOrdered = new ArrayList<>();
+    private static boolean hasNonPawnMaterial(Position thePosition, int team) {
+        return (thePosition.getOccupancy(team) & ~thePosition.getPieces(team, Piece.PAWN) &
+                ~thePosition.getPieces(team, Piece.KING)) != 0;
+    }
 
-        for (Move move : moves) {
-            int moveScoreGuess = 0;
-            Piece piece = move.getPiece();
-            Piece captured = move.getCaptured();
+    /**
+     * Searches only captures and promotions until the position is quiet, so the search doesn't
+     * stop in the middle of an exchange
+     *
+     * The side to move may stand pat on the static evaluation instead of capturing, and captures
+     * that can't bring the score near alpha even after winning the captured piece are skipped.
+     * In check, every evasion is searched.
+     * @param thePosition the position
+     * @param alpha the score the side to move is already guaranteed
+     * @param beta the score the opponent is already guaranteed (as a bound for the side to move)
+     * @return the score from the side to move's point of view
+     */
+    private int quiescence(Position thePosition, int alpha, int beta) {
+        quiescenceNodes++;
+        if (aborted || shouldAbort()) {
+            aborted = true;
+            return 0;
+        }
+
+        int ply = thePosition.getPly();
+        pvLength[ply] = ply;
+        int bitbaseScore = bitbaseScore(thePosition);
+        if (bitbaseScore != NO_BITBASE_SCORE) {
+            return bitbaseScore;
+        }
+        int team = thePosition.getSideToMove();
+        int standPat = evaluatePosition(thePosition, team == Piece.WHITE);
+        if (ply >= Position.MAX_PLY - 1) {
+            return standPat;
+        }
 
-            // Prioritize capturing the opps' higher value pieces with our lower value pieces
-            if (captured != null) {
-                moveScoreGuess = 3 * pieceValues.get(captured.getType()) - pieceValues.get(piece.getType());
+        // Without a check, the side to move can decline every capture
+        boolean inCheck = thePosition.isInCheck(team);
+        int bestScore = -INFINITY;
+        if (!inCheck) {
+            bestScore = standPat;
+            if (standPat >= beta) {
+                return standPat;
             }
+            alpha = Math.max(alpha, standPat);
+        }
 
-            // Penalize if opponent pawns can attack the square
-            for (Piece opp : board.getTeamPieces(oppTeam)) {
-                if (opp.getType() == Piece.PAWN) {
-                    Point oppLocation = opp.getLocation();
+        int[] moves = moveBuffers[ply];
+        int count = getPossibleMoves(thePosition, moves);
+        if (count == 0) {
+            return inCheck ? -MATE_SCORE + ply : 0;
+        }
 
-                    // Check all opp pawn moves
-                    for (Move oppMove : Piece.getPawnMoves(board, opp, oppLocation.x, oppLocation.y)) {
-                        Point oppCoords = oppMove.getInitialCoords();
-                        Point oppDestination = oppMove.getDestination();
-                        if (oppDestination.x != oppCoords.x && oppDestination.equals(move.getDestination())) {
-                            moveScoreGuess -= pieceValues.get(piece.getType());
-                        }
-                    }
+        // Keep captures and promotions only
+        if (!inCheck) {
+            int tacticalCount = 0;
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                if (Move.captured(move) != 0 || Move.promotion(move) != 0) {
+                    moves[tacticalCount++] = move;
                 }
             }
+            count = tacticalCount;
+        }
+        int[] scores = scoreBuffers[ply];
+        scoreMoves(thePosition, moves, scores, count, Move.NONE);
+
+        for (int i = 0; i < count; i++) {
+            int move = pickMove(moves, scores, i, count);
 
-            // Reward for promotion
-            if (move.getPiece().getType() == Piece.PAWN &&
-                    (move.getDestination().y == 7 || move.getDestination().y == 0)) {
-                moveScoreGuess += pieceValues.get(Piece.QUEEN);
+            // Delta pruning
+            if (!inCheck && Move.promotion(move) == 0 &&
+                    standPat + Evaluation.PIECE_VALUES[Move.captured(move)] + DELTA_MARGIN <= alpha) {
+                continue;
             }
 
-            move.setScore(moveScoreGuess);
+            thePosition.makeMove(move);
+            int score = -quiescence(thePosition, -beta, -alpha);
+            thePosition.unmakeMove();
+            if (aborted) {
+                return 0;
+            }
 
-            // Add move to list based on score
-            if (movesOrdered.isEmpty()) {
-                movesOrdered.add(move);
-            } else {
-                int i = 0;
-                int currentMoveScore = movesOrdered.get(i).getScore();
-                while (move.getScore() < currentMoveScore) {
-                    i++;
-                    if (i == movesOrdered.size()) {
-                        movesOrdered.add(move);
-                    }
-                    currentMoveScore = movesOrdered.get(i).getScore();
+            bestScore = Math.max(bestScore, score);
+            alpha = Math.max(alpha, score);
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        return bestScore;
+    }
+
+    /**
+     * Stores a search result in the transposition table
+     * @param key the position's Zobrist key
+     * @param depth the depth searched
+     * @param ply the ply of the position
+     * @param alpha alpha when the position's search started
+     * @param beta beta when the position's search started
+     * @param score the score found
+     * @param bestMove the packed best move found
+     */
+    private void storeResult(long key, int depth, int ply, int alpha, int beta, int score, int bestMove) {
+        int bound = TranspositionTable.EXACT;
+        if (score <= alpha) {
+            bound = TranspositionTable.UPPER_BOUND;
+        } else if (score >= beta) {
+            bound = TranspositionTable.LOWER_BOUND;
+        }
+        transpositionTable.store(key, depth, bound, scoreToTable(score, ply), bestMove & Move.IDENTITY_MASK);
+    }
+
+    /**
+     * Converts a mate score to be relative to the stored position rather than the root
+     * @param score the score
+     * @param ply the ply of the position
+     * @return the score to store
+     */
+    private static int scoreToTable(int score, int ply) {
+        if (isMateScore(score)) {
+            return (score > 0) ? score + ply : score - ply;
+        }
+        return score;
+    }
+
+    /**
+     * Converts a stored mate score back to be relative to the root
+     * @param score the stored score
+     * @param ply the ply of the position
+     * @return the score
+     */
+    private static int scoreFromTable(int score, int ply) {
+        if (isMateScore(score)) {
+            return (score > 0) ? score - ply : score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Clears the killer moves and ages the history table before a new search
+     */
+    private void clearOrdering() {
+        for (int[] plyKillers : killers) {
+            plyKillers[0] = Move.NONE;
+            plyKillers[1] = Move.NONE;
+        }
+        for (int[][] teamHistory : history) {
+            for (int[] fromHistory : teamHistory) {
+                for (int to = 0; to < fromHistory.length; to++) {
+                    fromHistory[to] /= 2;
                 }
-                if (i < movesOrdered.size()) {
-                    movesOrdered.add(i, move);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a move is quiet (neither a capture nor a queen promotion)
+     * @param move the packed move
+     * @return whether the move is quiet
+     */
+    private static boolean isQuiet(int move) {
+        return Move.captured(move) == 0 && Move.promotion(move) != Piece.QUEEN;
+    }
+
+    /**
+     * Remembers a quiet move that caused a beta cutoff as a killer for its ply and in the history table
+     * @param move the packed move
+     * @param ply the ply the move was played at
+     * @param depth the remaining depth of the search that cut off
+     * @param team the team that played the move
+     */
+    private void updateQuietCutoff(int move, int ply, int depth, int team) {
+        int identity = move & Move.IDENTITY_MASK;
+        if (killers[ply][0] != identity) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = identity;
+        }
+
+        // Deeper cutoffs count for more, halving the table when it gets too large
+        int[] fromHistory = history[team][Move.from(move)];
+        fromHistory[Move.to(move)] += depth * depth;
+        if (fromHistory[Move.to(move)] > HISTORY_MAX) {
+            for (int[] teamHistory : history[team]) {
+                for (int to = 0; to < teamHistory.length; to++) {
+                    teamHistory[to] /= 2;
                 }
             }
         }
+    }
+
+    /**
+     * Scores moves for ordering: the transposition table move first, then captures and queen
+     * promotions by most valuable victim / least valuable attacker, then the ply's killer moves,
+     * then quiet moves by how often they have caused cutoffs
+     * @param thePosition the position the moves are for
+     * @param moves the moves to score
+     * @param scores a buffer for the move scores
+     * @param count the number of moves
+     * @param hashMove the transposition table move's squares and promotion (0 if none)
+     */
+    public void scoreMoves(Position thePosition, int[] moves, int[] scores, int count, int hashMove) {
+        int ply = thePosition.getPly();
+        int[][] teamHistory = history[thePosition.getSideToMove()];
+
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int identity = move & Move.IDENTITY_MASK;
+
+            if (identity == hashMove) {
+                scores[i] = HASH_MOVE_SCORE;
+            } else if (!isQuiet(move)) {
+                scores[i] = CAPTURE_SCORE + 8 * (Move.captured(move) + Move.promotion(move)) - Move.piece(move);
+            } else if (identity == killers[ply][0]) {
+                scores[i] = KILLER_SCORE + 1;
+            } else if (identity == killers[ply][1]) {
+                scores[i] = KILLER_SCORE;
+            } else {
+                scores[i] = teamHistory[Move.from(move)][Move.to(move)];
+            }
+        }
+    }
+
+    /**
+     * Swaps the best scored of the remaining moves into place, so moves are only ordered as far
+     * as the search gets before a cutoff
+     * @param moves the moves
+     * @param scores the move scores
+     * @param index the index of the next move to search
+     * @param count the number of moves
+     * @return the move to search next
+     */
+    public static int pickMove(int[] moves, int[] scores, int index, int count) {
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
 
-        return movesOrdered;
+        int move = moves[best];
+        int score = scores[best];
+        moves[best] = moves[index];
+        scores[best] = scores[index];
+        moves[index] = move;
+        scores[index] = score;
+        return move;
     }
 }
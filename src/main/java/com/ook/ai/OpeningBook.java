@@ -0,0 +1,310 @@
+package com.ook.ai;
+
+import com.ook.game.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Opening book keyed by position hash
+ *
+ * The book is compiled from the games in openings.txt by replaying them through the move
+ * generator, so moves are found by position and transpositions are picked up. Entries are
+ * kept in a sorted array of keys with a parallel array of weighted moves, and a lookup is a
+ * binary search. The compiled book ships as the openings.bin resource and is loaded once per JVM.
+ */
+public class OpeningBook {
+    private static final int MAGIC = 0x424F4F4B; // "BOOK"
+    private static final int VERSION = 1;
+    private static final String BOOK_RESOURCE = "/openings.bin";
+    private static final String GAMES_RESOURCE = "/openings.txt";
+
+    // Entry layout: move squares and promotion (bits 0-15), number of games that played it (bits 16-31)
+    private static final int MOVE_MASK = 0xFFFF;
+    private static final int WEIGHT_SHIFT = 16;
+    private static final int MAX_WEIGHT = 0xFFFF;
+
+    private final long[] keys;
+    private final int[] entries;
+
+    /**
+     * Holds the shared book so it is only loaded the first time it is used
+     */
+    private static class Holder {
+        private static final OpeningBook BOOK = load();
+    }
+
+    /**
+     * Creates a book from sorted keys and their entries
+     * @param keys the position keys, sorted (a key appears once per move)
+     * @param entries the entry for each key
+     */
+    private OpeningBook(long[] keys, int[] entries) {
+        this.keys = keys;
+        this.entries = entries;
+    }
+
+    /**
+     * Gets the book shared by every AI
+     * @return the opening book
+     */
+    public static OpeningBook getDefault() {
+        return Holder.BOOK;
+    }
+
+    /**
+     * Loads the compiled book resource, compiling it from the games resource if it wasn't built
+     * @return the opening book (empty if neither resource exists)
+     */
+    private static OpeningBook load() {
+        try (InputStream book = OpeningBook.class.getResourceAsStream(BOOK_RESOURCE)) {
+            if (book != null) {
+                return read(book);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read opening book: " + e.getMessage());
+        }
+
+        try (InputStream games = OpeningBook.class.getResourceAsStream(GAMES_RESOURCE)) {
+            if (games != null) {
+                return compile(games);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read opening games: " + e.getMessage());
+        }
+        return new OpeningBook(new long[0], new int[0]);
+    }
+
+    /**
+     * Compiles a book from games, one game of SAN moves per line (move numbers are skipped)
+     * @param games the games
+     * @return the opening book
+     * @throws IOException if the games can't be read
+     */
+    public static OpeningBook compile(InputStream games) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(games, StandardCharsets.UTF_8));
+        long[] keys = new long[1024];
+        int[] moves = new int[1024];
+        int count = 0;
+        int[] legalMoves = new int[MoveGenerator.MAX_MOVES];
+
+        // Record every (position, move) pair of every game
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Position position = new Position(Position.START_FEN);
+            for (String token : line.trim().split("\\s+")) {
+                if (token.isEmpty() || token.endsWith(".") || token.equals("1-0") || token.equals("0-1") ||
+                        token.equals("1/2-1/2") || token.equals("*")) {
+                    continue;
+                }
+                int move = parseMove(position, token, legalMoves);
+                if (move == Move.NONE || position.getPly() == Position.MAX_PLY) {
+                    break; // Stop at the first move that doesn't replay
+                }
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, 2 * count);
+                    moves = Arrays.copyOf(moves, 2 * count);
+                }
+                keys[count] = position.getKey();
+                moves[count] = move & Move.IDENTITY_MASK;
+                count++;
+                position.makeMove(move);
+            }
+        }
+
+        // Sort pairs by key then move, and merge duplicates into weights
+        long[][] pairs = new long[count][];
+        for (int i = 0; i < count; i++) {
+            pairs[i] = new long[] {keys[i], moves[i]};
+        }
+        Arrays.sort(pairs, (a, b) -> (a[0] != b[0]) ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        long[] bookKeys = new long[count];
+        int[] bookEntries = new int[count];
+        int size = 0;
+        for (long[] pair : pairs) {
+            int move = (int) pair[1];
+            if (size > 0 && bookKeys[size - 1] == pair[0] && (bookEntries[size - 1] & MOVE_MASK) == move) {
+                int weight = Math.min((bookEntries[size - 1] >>> WEIGHT_SHIFT) + 1, MAX_WEIGHT);
+                bookEntries[size - 1] = move | (weight << WEIGHT_SHIFT);
+            } else {
+                bookKeys[size] = pair[0];
+                bookEntries[size] = move | (1 << WEIGHT_SHIFT);
+                size++;
+            }
+        }
+        return new OpeningBook(Arrays.copyOf(bookKeys, size), Arrays.copyOf(bookEntries, size));
+    }
+
+    /**
+     * Finds the legal move a SAN token describes
+     * @param position the position
+     * @param san the move in standard algebraic notation
+     * @param legalMoves a buffer for the legal moves
+     * @return the packed move (Move.NONE if no legal move matches)
+     */
+    private static int parseMove(Position position, String san, int[] legalMoves) {
+        String[] components = MoveHandler.parseMove(san);
+        int count = MoveGenerator.generate(position, legalMoves);
+
+        // Castling
+        String castle = components[MoveHandler.CASTLE];
+        if (castle != null) {
+            int king = position.getKingSquare(position.getSideToMove());
+            int to = castle.equals("O-O") ? king + 2 : king - 2;
+            for (int i = 0; i < count; i++) {
+                if ((Move.flags(legalMoves[i]) & Move.CASTLE) != 0 && Move.to(legalMoves[i]) == to) {
+                    return legalMoves[i];
+                }
+            }
+            return Move.NONE;
+        }
+        if (components[MoveHandler.SQUARE] == null) {
+            return Move.NONE;
+        }
+
+        String piece = components[MoveHandler.PIECE];
+        int type = (piece == null) ? Piece.PAWN : Piece.letterPieceMapping.get(piece);
+        String square = components[MoveHandler.SQUARE];
+        int to = Position.square(square.charAt(0) - 'a', square.charAt(1) - '1');
+        String promotion = components[MoveHandler.PROMOTION];
+        int promotionType = (promotion == null) ? 0 : Piece.letterPieceMapping.get(promotion.substring(1));
+        String specifier = components[MoveHandler.SPECIFIER];
+
+        for (int i = 0; i < count; i++) {
+            int move = legalMoves[i];
+            if (Move.piece(move) != type || Move.to(move) != to || Move.promotion(move) != promotionType) {
+                continue;
+            }
+            if (specifier != null) {
+                char c = specifier.charAt(0);
+                int from = Move.from(move);
+                boolean matches = Character.isDigit(c) ? from / Board.SIZE == c - '1' : from % Board.SIZE == c - 'a';
+                if (!matches) {
+                    continue;
+                }
+            }
+            return move;
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Reads a compiled book
+     * @param in the compiled book
+     * @return the opening book
+     * @throws IOException if the book can't be read or is not a compiled book
+     */
+    public static OpeningBook read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a compiled opening book");
+        }
+        int size = data.readInt();
+        long[] keys = new long[size];
+        int[] entries = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = data.readLong();
+            entries[i] = data.readInt();
+        }
+        return new OpeningBook(keys, entries);
+    }
+
+    /**
+     * Writes the book in compiled form
+     * @param out the stream to write to
+     * @throws IOException if the book can't be written
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            data.writeLong(keys[i]);
+            data.writeInt(entries[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Gets the number of (position, move) entries in the book
+     * @return the number of entries
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Picks a book move for a position, weighted by how many games played each move
+     * @param position the position
+     * @return the packed legal move (Move.NONE if the position is not in the book)
+     */
+    public int probe(Position position) {
+        long key = position.getKey();
+
+        // Find the first entry for the key
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        int totalWeight = 0;
+        while (end < keys.length && keys[end] == key) {
+            totalWeight += entries[end] >>> WEIGHT_SHIFT;
+            end++;
+        }
+        if (totalWeight == 0) {
+            return Move.NONE;
+        }
+
+        // Choose an entry in proportion to its weight
+        int choice = (int) (Math.random() * totalWeight);
+        int entry = low;
+        while ((choice -= entries[entry] >>> WEIGHT_SHIFT) >= 0) {
+            entry++;
+        }
+        int bookMove = entries[entry] & MOVE_MASK;
+
+        // Return the matching legal move, guarding against hash collisions
+        int[] legalMoves = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, legalMoves);
+        for (int i = 0; i < count; i++) {
+            if ((legalMoves[i] & Move.IDENTITY_MASK) == bookMove) {
+                return legalMoves[i];
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Compiles the book at build time
+     * @param args the games file and the compiled book file to write
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: OpeningBook <games file> <compiled book file>");
+            System.exit(1);
+        }
+
+        OpeningBook book;
+        try (InputStream games = new FileInputStream(args[0])) {
+            book = compile(games);
+        }
+        File output = new File(args[1]);
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
+        }
+        try (OutputStream out = new FileOutputStream(output)) {
+            book.write(out);
+        }
+        System.out.println("Compiled " + book.size() + " opening book entries to " + output);
+    }
+}
@@ -0,0 +1,14 @@
+package com.ook.ai;
+
+/**
+ * Receives progress reports from a running search
+ */
+public interface SearchListener {
+    /**
+     * Called after each completed iteration of iterative deepening
+     * @param depth the depth the iteration searched
+     * @param score the score for the AI
+     * @param bestMove the packed best move so far
+     */
+    void iterationCompleted(int depth, int score, int bestMove);
+}
@@ -0,0 +1,182 @@
+package com.ook.ai;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size transposition table of search results keyed by Zobrist key
+ *
+ * Entries are grouped into buckets of four. Each entry is two longs: the key
+ * XORed with the data, and the data itself (score, best move, depth, bound and
+ * search age), so a torn write from another thread fails the key check instead
+ * of returning mixed data.
+ */
+public class TranspositionTable {
+    // Bound types
+    public static final int EXACT = 0;
+    public static final int LOWER_BOUND = 1;
+    public static final int UPPER_BOUND = 2;
+
+    // Returned by probe when there is no entry
+    public static final long NO_ENTRY = 0;
+
+    private static final int BUCKET_SIZE = 4;
+    private static final int ENTRY_BYTES = 16;
+
+    // Data layout: score (bits 0-31), move (32-47), depth (48-55), bound (56-57), age (58-63)
+    private static final int MOVE_SHIFT = 32;
+    private static final int DEPTH_SHIFT = 48;
+    private static final int BOUND_SHIFT = 56;
+    private static final int AGE_SHIFT = 58;
+    private static final int AGE_MASK = 0x3F;
+
+    private final long[] keys;
+    private final long[] data;
+    private final int bucketMask;
+    private int age;
+
+    /**
+     * TranspositionTable constructor
+     * @param sizeMB the size of the table in megabytes
+     */
+    public TranspositionTable(int sizeMB) {
+        // Round the number of buckets down to a power of two
+        long buckets = Math.max(1, (long) sizeMB * 1024 * 1024 / (ENTRY_BYTES * BUCKET_SIZE));
+        int bucketCount = Integer.highestOneBit((int) Math.min(buckets, Integer.MAX_VALUE / BUCKET_SIZE));
+        keys = new long[bucketCount * BUCKET_SIZE];
+        data = new long[bucketCount * BUCKET_SIZE];
+        bucketMask = bucketCount - 1;
+    }
+
+    /**
+     * Starts a new search so entries from earlier searches are replaced first
+     */
+    public void newSearch() {
+        age = (age + 1) & AGE_MASK;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+    }
+
+    /**
+     * Looks up a position
+     * @param key the position's Zobrist key
+     * @return the entry's data (NO_ENTRY if the position is not stored)
+     */
+    public long probe(long key) {
+        int first = bucketIndex(key);
+        for (int i = first; i < first + BUCKET_SIZE; i++) {
+            long entryData = data[i];
+            if ((keys[i] ^ entryData) == key && entryData != NO_ENTRY) {
+                return entryData;
+            }
+        }
+        return NO_ENTRY;
+    }
+
+    /**
+     * Stores a search result
+     *
+     * An existing entry for the same position is overwritten unless it was searched
+     * deeper in the current search. Otherwise the entry replaced is the one with the
+     * lowest depth, counting entries from older searches as shallower.
+     * @param key the position's Zobrist key
+     * @param depth the depth searched
+     * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param score the score
+     * @param move the best move found (0 if none)
+     */
+    public void store(long key, int depth, int bound, int score, int move) {
+        int first = bucketIndex(key);
+        int replace = first;
+        int lowestPriority = Integer.MAX_VALUE;
+
+        for (int i = first; i < first + BUCKET_SIZE; i++) {
+            long entryData = data[i];
+            if ((keys[i] ^ entryData) == key && entryData != NO_ENTRY) {
+                if (depth < depth(entryData) && age(entryData) == age && bound != EXACT) {
+                    return;
+                }
+                // Keep the old best move if this search didn't find one
+                if (move == 0) {
+                    move = move(entryData);
+                }
+                replace = i;
+                break;
+            }
+
+            int priority = (entryData == NO_ENTRY) ? Integer.MIN_VALUE
+                    : depth(entryData) - 8 * ((age - age(entryData)) & AGE_MASK);
+            if (priority < lowestPriority) {
+                lowestPriority = priority;
+                replace = i;
+            }
+        }
+
+        long entryData = (score & 0xFFFFFFFFL) |
+                ((long) (move & 0xFFFF) << MOVE_SHIFT) |
+                ((long) (depth & 0xFF) << DEPTH_SHIFT) |
+                ((long) bound << BOUND_SHIFT) |
+                ((long) age << AGE_SHIFT);
+        keys[replace] = key ^ entryData;
+        data[replace] = entryData;
+    }
+
+    /**
+     * Gets the index of the first entry in a key's bucket
+     * @param key the Zobrist key
+     * @return the entry index
+     */
+    private int bucketIndex(long key) {
+        return (int) (key & bucketMask) * BUCKET_SIZE;
+    }
+
+    /**
+     * Gets the score of an entry
+     * @param entryData the entry's data
+     * @return the score
+     */
+    public static int score(long entryData) {
+        return (int) entryData;
+    }
+
+    /**
+     * Gets the best move of an entry
+     * @param entryData the entry's data
+     * @return the best move (0 if none)
+     */
+    public static int move(long entryData) {
+        return (int) (entryData >>> MOVE_SHIFT) & 0xFFFF;
+    }
+
+    /**
+     * Gets the depth of an entry
+     * @param entryData the entry's data
+     * @return the depth searched
+     */
+    public static int depth(long entryData) {
+        return (int) (entryData >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Gets the bound type of an entry
+     * @param entryData the entry's data
+     * @return EXACT, LOWER_BOUND or UPPER_BOUND
+     */
+    public static int bound(long entryData) {
+        return (int) (entryData >>> BOUND_SHIFT) & 0x3;
+    }
+
+    /**
+     * Gets the search age of an entry
+     * @param entryData the entry's data
+     * @return the age
+     */
+    private static int age(long entryData) {
+        return (int) (entryData >>> AGE_SHIFT) & AGE_MASK;
+    }
+}
@@ -0,0 +1,374 @@
+package com.ook.bot;
+
+import com.ook.ai.ChessAI;
+import com.ook.game.Game;
+import com.ook.game.ImageFormat;
+import com.ook.game.Move;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A game played in one channel. Its commands go through a mailbox and run one at a time, so moves
+ * in a game can't race while other games run in parallel
+ */
+public class BotGame {
+    private final String gameId;
+    private final JDA jda;
+    private final UserNameCache userNames;
+    private final MessageChannel channel;
+    private final Member player1;
+    private final Member player2;
+    private final String id; // The bot user's ID
+    private final int aiThreads;
+    private final Executor commandExecutor;
+    private final ExecutorService aiExecutor;
+    private final Executor searchExecutor;
+    private final Consumer<BotGame> onEnd;
+
+    // Commands waiting to run, and whether a command thread is running them
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // Only touched by the game's commands
+    private ChessBotIO io;
+    private ImageFormat imageFormat;
+    private Game game;
+    private volatile ChessAI ai;
+    private boolean aiThinking; // The AI is searching for its move
+    private boolean resignPending; // The player resigned while the AI was thinking
+    private boolean ended;
+
+    /**
+     * BotGame constructor
+     * @param gameId the ID the game's files are kept under
+     * @param jda the JDA object
+     * @param userNames the cache the players' names are looked up in
+     * @param channel the channel the game is played in
+     * @param player1 the member playing white
+     * @param player2 the member playing black
+     * @param id the bot user's ID
+     * @param aiThreads the number of threads the AI searches with
+     * @param imageFormat the format board images are rendered in
+     * @param commandExecutor runs the game's commands
+     * @param aiExecutor runs the AI's searches
+     * @param searchExecutor runs the AI's search helpers and ponder searches when it has a thread free
+     * @param onEnd called once the game has ended
+     */
+    public BotGame(String gameId, JDA jda, UserNameCache userNames, MessageChannel channel, Member player1,
+                   Member player2, String id, int aiThreads, ImageFormat imageFormat, Executor commandExecutor,
+                   ExecutorService aiExecutor, Executor searchExecutor, Consumer<BotGame> onEnd) {
+        this.gameId = gameId;
+        this.jda = jda;
+        this.userNames = userNames;
+        this.channel = channel;
+        this.player1 = player1;
+        this.player2 = player2;
+        this.id = id;
+        this.aiThreads = aiThreads;
+        this.imageFormat = imageFormat;
+        this.commandExecutor = commandExecutor;
+        this.aiExecutor = aiExecutor;
+        this.searchExecutor = searchExecutor;
+        this.onEnd = onEnd;
+    }
+
+    /**
+     * Starts the game once the players' names are known. Uncached names are retrieved in parallel
+     * without blocking, and the game is set up through the mailbox
+     */
+    public void start() {
+        CompletableFuture<String> whiteName = userNames.retrieve(jda, player1.getId());
+        CompletableFuture<String> blackName = userNames.retrieve(jda, player2.getId());
+        whiteName.thenCombine(blackName, (white, black) -> new String[] {white, black})
+                .whenComplete((names, error) -> post(() -> {
+                    if (error != null) {
+                        error.printStackTrace();
+                        channel.sendMessage("Couldn't start the game. Try again later.").queue();
+                        ended = true;
+                        onEnd.accept(this);
+                    } else {
+                        doStart(names[0], names[1]);
+                    }
+                }));
+    }
+
+    /**
+     * Plays a move in the game
+     * @param sender the member who sent the move
+     * @param move the move
+     */
+    public void move(Member sender, String move) {
+        post(() -> doMove(sender, move));
+    }
+
+    /**
+     * Changes the format of the game's board images from the next move
+     * @param format the image format
+     */
+    public void setImageFormat(ImageFormat format) {
+        post(() -> {
+            imageFormat = format;
+            if (io != null) {
+                io.setImageFormat(format);
+            }
+        });
+    }
+
+    /**
+     * Stops the AI's search, if it is playing
+     */
+    public void cancel() {
+        ChessAI theAI = ai;
+        if (theAI != null) {
+            theAI.cancel();
+            theAI.stopPondering();
+        }
+    }
+
+    /**
+     * Gets the channel the game is played in
+     * @return the game channel
+     */
+    public MessageChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Checks if a member is playing in the game
+     * @param member the member
+     * @return true if the member is one of the players
+     */
+    public boolean hasPlayer(Member member) {
+        return member.equals(player1) || member.equals(player2);
+    }
+
+    /**
+     * Adds a command to the mailbox
+     * @param command the command
+     */
+    private void post(Runnable command) {
+        mailbox.add(command);
+        schedule();
+    }
+
+    /**
+     * Runs the mailbox on a command thread unless one is already running it
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                commandExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false); // The bot is shutting down
+            }
+        }
+    }
+
+    /**
+     * Runs the commands in the mailbox
+     */
+    private void drain() {
+        Runnable command;
+        while ((command = mailbox.poll()) != null) {
+            try {
+                command.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        scheduled.set(false);
+
+        // A command may have been posted after the last poll
+        if (!mailbox.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Sets up the game and takes the first move
+     * @param whiteName the white player's name
+     * @param blackName the black player's name
+     */
+    private void doStart(String whiteName, String blackName) {
+        // Check if player is playing bot
+        boolean aiIsPlayingWhite = false;
+        String playerName = null;
+
+        if (player1.getId().equals(id)) {
+            ai = new ChessAI("ChessBot");
+            ai.setThreads(aiThreads);
+            ai.setPonderExecutor(searchExecutor);
+            ai.setHelperExecutor(searchExecutor);
+            aiIsPlayingWhite = true;
+            playerName = blackName;
+        } else if (player2.getId().equals(id)) {
+            ai = new ChessAI("ChessBot");
+            ai.setThreads(aiThreads);
+            ai.setPonderExecutor(searchExecutor);
+            ai.setHelperExecutor(searchExecutor);
+            playerName = whiteName;
+        }
+
+        // Set up IO and game
+        io = new ChessBotIO(gameId, channel, player1, whiteName, player2, blackName, imageFormat);
+        if (ai != null) {
+            game = new Game(io, gameId, playerName, !aiIsPlayingWhite, ai);
+        } else {
+            game = new Game(io, gameId, whiteName, blackName);
+        }
+
+        // Start game
+        if (ai != null && ai.isPlayingWhite()) {
+            playAIMove();
+        } else {
+            game.takeNextMove(null);
+        }
+    }
+
+    /**
+     * Plays a move sent by a member
+     * @param sender the member who sent the move
+     * @param move the move
+     */
+    private void doMove(Member sender, String move) {
+        if (ended) {
+            return;
+        }
+        if (game == null) {
+            channel.sendMessage("Hold on, the game is starting.").queue();
+            return;
+        }
+
+        // Check if sender is not in the game
+        if (!hasPlayer(sender)) {
+            channel.sendMessage("Bro you're not even in the game.").queue();
+            return;
+        }
+
+        // A resignation while the AI is thinking stops its search, and the game ends once the search has
+        // stopped. Other moves have to wait for the AI
+        if (aiThinking) {
+            if (move.equalsIgnoreCase("resign")) {
+                resignPending = true;
+                ai.cancel();
+            } else {
+                channel.sendMessage("Hold on, I'm thinking.").queue();
+            }
+            return;
+        }
+
+        // The AI couldn't start its move because every AI worker was busy, so the player can resign on its
+        // turn and any other move tries again
+        if (ai != null && game.whiteToPlay() == ai.isPlayingWhite()) {
+            if (move.equalsIgnoreCase("resign")) {
+                game.toggleTurn();
+                game.takeNextMove(move);
+                if (game.ended()) {
+                    endGame();
+                }
+            } else {
+                playAIMove();
+            }
+            return;
+        }
+
+        // Check if wrong player is sending move
+        if (game.whiteToPlay() && sender.equals(player2) ||
+                !game.whiteToPlay() && sender.equals(player1)) {
+            channel.sendMessage("It's not your turn.").queue();
+            return;
+        }
+
+        // Take the next move in the game
+        game.takeNextMove(move);
+
+        // Do AI move if it's AI turn (the game ends after the AI moves if it has to)
+        if (ai != null && !game.ended() && game.whiteToPlay() == ai.isPlayingWhite()) {
+            playAIMove();
+            return;
+        }
+
+        // Send PGN if game has ended
+        if (game.ended()) {
+            endGame();
+        }
+    }
+
+    /**
+     * Plays the AI's move on an AI worker, posting its progress while it thinks. The game's commands keep
+     * running meanwhile, and the AI's move is finished through the mailbox. If every worker is busy, the
+     * move is left for the player's next message to retry
+     */
+    private void playAIMove() {
+        ChessAI theAI = ai;
+        ChessBotIO theIO = io;
+
+        // Stop or keep the ponder search now, so it never runs on past the opponent's move while this move
+        // waits for a worker
+        theAI.opponentMoved();
+        theAI.setSearchListener((depth, score, bestMove) -> theIO.showThinking(
+                String.format("Thinking... depth %d, best %s", depth, Move.toCoordinateNotation(bestMove))));
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            theIO.startThinking();
+            try {
+                theAI.move();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                theIO.stopThinking();
+            }
+            post(this::finishAIMove);
+        }, null);
+        try {
+            aiExecutor.execute(task);
+            aiThinking = true;
+        } catch (RejectedExecutionException e) {
+            channel.sendMessage("I'm busy with other games right now. Send any move in a bit and I'll try again.")
+                    .queue();
+        }
+    }
+
+    /**
+     * Lets the player move once the AI has moved, or ends the game
+     */
+    private void finishAIMove() {
+        if (ended) {
+            return;
+        }
+        aiThinking = false;
+
+        // The player resigned while the AI was thinking (their turn again if the AI moved anyway)
+        if (resignPending) {
+            resignPending = false;
+            if (game.whiteToPlay() == ai.isPlayingWhite()) {
+                game.toggleTurn();
+            }
+            game.takeNextMove("resign");
+        }
+        if (game.ended()) {
+            endGame();
+        }
+    }
+
+    /**
+     * Sends the PGN, cleans up the game files and removes the game
+     */
+    private void endGame() {
+        ended = true;
+        cancel();
+        io.sendPGN();
+        io.cleanup();
+        onEnd.accept(this);
+    }
+}
@@ -1,7 +1,8 @@
 package com.ook.bot;
 
-import com.ook.ai.ChessAI;
-import com.ook.game.Game;
+import com.ook.game.FileHandler;
+import com.ook.game.ImageFormat;
+import com.ook.game.SpriteAtlas;
 import io.github.cdimascio.dotenv.Dotenv;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
@@ -9,12 +10,17 @@ import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.session.ShutdownEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 
 import java.awt.*;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.*;
 
 /**
  * Chess bot class
@@ -22,19 +28,35 @@ import java.util.Scanner;
 public class ChessBot extends ListenerAdapter {
     private static final String PLAY_USAGE = "Usage: `!play <@player1> <@player2>`";
     private static final String MOVE_USAGE = "Usage: `!move <move>`";
+    private static final String FORMAT_USAGE = "Usage: `!format [png|indexed|svg] [small|medium|large] [0-9]`";
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    // AI moves waiting for a worker. Once it's full, the bot says it's busy and the player's next message in
+    // the game retries the move
+    private static final int AI_QUEUE_SIZE = 16;
 
     // Instance variables
     private String id;
     private JDA jda;
     private final String prefix = "!";
-    private ChessBotIO io;
-    private Game game;
-    private MessageChannel gameChannel;
-    private Member player1;
-    private String player1ID;
-    private Member player2;
-    private String player2ID;
-    private ChessAI ai;
+    private int aiThreads = 1;
+    private final UserNameCache userNames = new UserNameCache();
+
+    // Games in progress and board image formats by channel ID
+    private final Map<String, BotGame> games = new ConcurrentHashMap<>();
+    private final Map<String, ImageFormat> imageFormats = new ConcurrentHashMap<>();
+
+    // Game commands run here, one at a time per game, so they never block the JDA event thread
+    private final ExecutorService commandExecutor = Executors.newFixedThreadPool(WORKERS,
+            daemonThreads("ChessBot game"));
+
+    // AI moves run here so a search never holds up its game's other commands
+    private final ExecutorService aiExecutor = new ThreadPoolExecutor(WORKERS, WORKERS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(AI_QUEUE_SIZE), daemonThreads("ChessBot AI"));
+
+    // Search helpers (with AI_THREADS above 1) and ponder searches run here, only on idle threads and never
+    // queued, so at most WORKERS of them run across every game and they can't hold up a move
+    private final ExecutorService searchExecutor = new ThreadPoolExecutor(0, WORKERS,
+            60L, TimeUnit.SECONDS, new SynchronousQueue<>(), daemonThreads("ChessBot search"));
 
     /**
      * Stores the bot user's ID
@@ -65,140 +87,17 @@ public class ChessBot extends ListenerAdapter {
 
         // Play game command
         if (content.startsWith(prefix + "play")) {
-            String[] args = content.split(" ");
-
-            if (args.length != 3) { // Wrong command syntax
-                channel.sendMessage(PLAY_USAGE).queue();
-                return;
-            }
-
-            if (game != null) {
-                channel.sendMessage("Another game is in progress.");
-                return;
-            }
-
-            // Players must be mentioned
-            List<User> mentionedUsers = message.getMentions().getUsers();
-            List<Member> mentionedMembers = message.getMentions().getMembers();
-
-            if (mentionedMembers.size() != 2) {
-                channel.sendMessage(PLAY_USAGE).queue();
-                return;
-            }
-
-            // Other bots can't play
-            for (User user : mentionedUsers) {
-                if (user.isBot()) {
-                    if (!user.getId().equals(id)) {
-                        channel.sendMessage("I can play you. Other bots can't play.").queue();
-                        return;
-                    }
-                }
-            }
-
-            // Check if someone else is trying to make two people play
-            if (!mentionedMembers.contains(sender)) {
-                channel.sendMessage("Are you being serious right now? Play the game yourself dumbass.").queue();
-                return;
-            }
-
-            // Set game channel
-            gameChannel = channel;
-
-            // Get players
-            player1 = mentionedMembers.get(0);
-            player1ID = player1.getId();
-            player2 = mentionedMembers.get(1);
-            player2ID = player2.getId();
-
-            // Check if player is playing bot
-            boolean aiIsPlayingWhite = false;
-            String playerName = null;
-
-            if (player1ID.equals(id)) {
-                ai = new ChessAI("ChessBot");
-                aiIsPlayingWhite = true;
-                playerName = jda.retrieveUserById(player2ID).complete().getName();
-            } else if (player2ID.equals(id)) {
-                ai = new ChessAI("ChessBot");
-                playerName = jda.retrieveUserById(player1ID).complete().getName();
-            }
-
-            // Set up IO and game
-            io = new ChessBotIO(jda, channel, player1, player2);
-            if (ai != null) {
-                game = new Game(io, playerName, !aiIsPlayingWhite, ai);
-            } else {
-                game = new Game(io, jda.retrieveUserById(player1ID).complete().getName(),
-                        jda.retrieveUserById(player2ID).complete().getName());
-            }
-
-            // Start game
-            if (ai != null && ai.isPlayingWhite()) {
-                ai.move();
-            } else {
-                game.takeNextMove(null);
-            }
+            play(channel, sender, message);
         }
 
         // Move command
         if (content.startsWith(prefix + "move")) {
-            String[] args = content.split(" ");
-
-            // Check command syntax
-            if (args.length != 2) {
-                channel.sendMessage(MOVE_USAGE).queue();
-                return;
-            }
-
-            // Check if game has not been started
-            if (game == null) {
-                channel.sendMessage("Game ain't even start yet.").queue();
-                return;
-            }
-
-            // Check if not on correct text channel
-            if (channel != gameChannel) {
-                channel.sendMessage(
-                        "What are you doing here? The game is going on in " + gameChannel.getAsMention()).queue();
-                return;
-            }
-
-            // Check if sender is not in the game
-            if (!sender.getId().equals(player1ID) && !sender.getId().equals(player2ID)) {
-                channel.sendMessage("Bro you're not even in the game.").queue();
-                return;
-            }
-
-            // Check if wrong player is sending move
-            if (game.whiteToPlay() && sender.equals(player2) ||
-                    !game.whiteToPlay() && sender.equals(player1)) {
-                channel.sendMessage("It's not your turn.").queue();
-                return;
-            }
-
-            // Take the next move in the game
-            game.takeNextMove(args[1]);
-
-            // Do AI move if it's AI turn
-            if (ai != null && !game.ended() && game.whiteToPlay() == ai.isPlayingWhite()) {
-                ai.move();
-            }
+            move(channel, sender, content);
+        }
 
-            // Send PGN and reset game variables if game has ended
-            if (game.ended()) {
-                io.sendPGN();
-                io.cleanup();
-
-                io = null;
-                game = null;
-                gameChannel = null;
-                player1 = null;
-                player2 = null;
-                player1ID = null;
-                player2ID = null;
-                ai = null;
-            }
+        // Board image format command
+        if (content.startsWith(prefix + "format")) {
+            format(channel, content);
         }
 
         // Help command
@@ -218,6 +117,12 @@ public class ChessBot extends ListenerAdapter {
                     "Plays a move. The move should be in standard chess notation.",
                     false
             ));
+            embed.addField(new MessageEmbed.Field(
+                    String.format("`%sformat [png|indexed|svg] [small|medium|large] [0-9]`", prefix),
+                    "Sets how boards are shown in this channel: the image type, size and PNG compression " +
+                            "level. Without options, shows the current format and image stats.",
+                    false
+            ));
             embed.addField(new MessageEmbed.Field(
                     String.format("`%shelp`", prefix),
                     "Displays all the commands that ChessBot responds to.",
@@ -233,6 +138,159 @@ public class ChessBot extends ListenerAdapter {
         }
     }
 
+    /**
+     * Starts a game
+     * @param channel the channel the command was sent in
+     * @param sender the member who sent the command
+     * @param message the command message
+     */
+    private void play(MessageChannel channel, Member sender, Message message) {
+        String[] args = message.getContentRaw().split(" ");
+
+        if (args.length != 3) { // Wrong command syntax
+            channel.sendMessage(PLAY_USAGE).queue();
+            return;
+        }
+
+        if (games.containsKey(channel.getId())) {
+            channel.sendMessage("Another game is in progress in this channel.").queue();
+            return;
+        }
+
+        // Players must be mentioned
+        List<User> mentionedUsers = message.getMentions().getUsers();
+        List<Member> mentionedMembers = message.getMentions().getMembers();
+
+        if (mentionedMembers.size() != 2) {
+            channel.sendMessage(PLAY_USAGE).queue();
+            return;
+        }
+
+        // Other bots can't play
+        for (User user : mentionedUsers) {
+            if (user.isBot()) {
+                if (!user.getId().equals(id)) {
+                    channel.sendMessage("I can play you. Other bots can't play.").queue();
+                    return;
+                }
+            }
+        }
+
+        // Check if someone else is trying to make two people play
+        if (!mentionedMembers.contains(sender)) {
+            channel.sendMessage("Are you being serious right now? Play the game yourself dumbass.").queue();
+            return;
+        }
+
+        // The mentions carry the players' current names, so starting the game needs no lookups
+        for (User user : mentionedUsers) {
+            userNames.put(user);
+        }
+
+        // Register the game, unless another one started in the channel meanwhile
+        String channelID = channel.getId();
+        String gameId = channelID + "_" + message.getId(); // Message IDs are unique, even across restarts
+        BotGame game = new BotGame(gameId, jda, userNames, channel, mentionedMembers.get(0),
+                mentionedMembers.get(1), id, aiThreads,
+                imageFormats.getOrDefault(channelID, ImageFormat.DEFAULT), commandExecutor, aiExecutor,
+                searchExecutor, ended -> games.remove(channelID, ended));
+        if (games.putIfAbsent(channelID, game) != null) {
+            channel.sendMessage("Another game is in progress in this channel.").queue();
+            return;
+        }
+        game.start();
+    }
+
+    /**
+     * Plays a move in the game in the channel
+     * @param channel the channel the command was sent in
+     * @param sender the member who sent the command
+     * @param content the command
+     */
+    private void move(MessageChannel channel, Member sender, String content) {
+        String[] args = content.split(" ");
+
+        // Check command syntax
+        if (args.length != 2) {
+            channel.sendMessage(MOVE_USAGE).queue();
+            return;
+        }
+
+        BotGame game = games.get(channel.getId());
+        if (game == null) {
+            // Check if the sender is playing in another channel
+            for (BotGame other : games.values()) {
+                if (other.hasPlayer(sender)) {
+                    channel.sendMessage("What are you doing here? The game is going on in " +
+                            other.getChannel().getAsMention()).queue();
+                    return;
+                }
+            }
+            channel.sendMessage("Game ain't even start yet.").queue();
+            return;
+        }
+
+        game.move(sender, args[1]);
+    }
+
+    /**
+     * Sets or shows the channel's board image format
+     * @param channel the channel the command was sent in
+     * @param content the command
+     */
+    private void format(MessageChannel channel, String content) {
+        String[] args = content.split(" ");
+
+        // Show the current format and how each format has performed
+        if (args.length == 1) {
+            ImageFormat format = imageFormats.getOrDefault(channel.getId(), ImageFormat.DEFAULT);
+            channel.sendMessage(String.format("Boards here are `%s`.\n```\n%s%s\n```", format,
+                    FileHandler.getImageMetrics(), FileHandler.getFrameCache())).queue();
+            return;
+        }
+
+        ImageFormat format;
+        try {
+            format = ImageFormat.parse(Arrays.copyOfRange(args, 1, args.length));
+        } catch (IllegalArgumentException e) {
+            channel.sendMessage(FORMAT_USAGE).queue();
+            return;
+        }
+        imageFormats.put(channel.getId(), format);
+        BotGame game = games.get(channel.getId());
+        if (game != null) {
+            game.setImageFormat(format);
+        }
+        channel.sendMessage(String.format("Boards here are now `%s`.", format)).queue();
+    }
+
+    /**
+     * Stops the AI in every game when the bot shuts down
+     * @param event the shutdown event
+     */
+    @Override
+    public void onShutdown(ShutdownEvent event) {
+        for (BotGame game : games.values()) {
+            game.cancel();
+        }
+        commandExecutor.shutdownNow();
+        aiExecutor.shutdownNow();
+        searchExecutor.shutdownNow();
+    }
+
+    /**
+     * Creates daemon threads for the bot's executors
+     * @param name the threads' name
+     * @return the thread factory
+     */
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     /**
      * Setter for JDA
      * @param jda the JDA object
@@ -241,6 +299,14 @@ public class ChessBot extends ListenerAdapter {
         this.jda = jda;
     }
 
+    /**
+     * Setter for the number of threads the AI searches with
+     * @param aiThreads the number of AI search threads
+     */
+    public void setAIThreads(int aiThreads) {
+        this.aiThreads = aiThreads;
+    }
+
     /**
      * Runs the discord bot
      * @param args command line arguments
@@ -248,9 +314,13 @@ public class ChessBot extends ListenerAdapter {
     public static void main(String[] args) {
         // Get bot token from dotenv
         String token = null;
+        String aiThreads = null;
+        String archiveBoards = null;
         try {
             Dotenv dotenv = Dotenv.load();
             token = dotenv.get("TOKEN");
+            aiThreads = dotenv.get("AI_THREADS");
+            archiveBoards = dotenv.get("ARCHIVE_BOARDS");
         } catch (Exception ignored) {}
         // If token is null, ask for token in console
         if (token == null) {
@@ -259,7 +329,18 @@ public class ChessBot extends ListenerAdapter {
             token = scanner.nextLine();
         }
 
+        // Decode the board sprites before the first game needs them
+        try {
+            SpriteAtlas.getDefault();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         ChessBot botObject = new ChessBot();
+        if (aiThreads != null) {
+            botObject.setAIThreads(Integer.parseInt(aiThreads));
+        }
+        FileHandler.setArchiving(Boolean.parseBoolean(archiveBoards));
         JDA discordBot = JDABuilder.createDefault(token) // Create bot with bot token
                 .addEventListeners(botObject) // Add new ChessBot event listener
                 .enableIntents(GatewayIntent.MESSAGE_CONTENT) // Enable message content intent
@@ -1,41 +1,58 @@
 package com.ook.bot;
 
 import com.ook.game.FileHandler;
+import com.ook.game.ImageFormat;
 import com.ook.io.ChessGameIO;
-import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.utils.FileUpload;
 
 import java.awt.*;
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Chess bot input/output
  */
 public class ChessBotIO implements ChessGameIO {
-    private static final String BOARD_PATH = "/%1$s_vs_%2$s/board.png";
+    private static final String PGN_NAME = "%1$s_vs_%2$s.pgn";
+    private static final long THINKING_DELAY_MILLIS = 1000; // Quicker searches post no progress
+    private static final long THINKING_INTERVAL_MILLIS = 1500; // Discord rate limits message edits
 
+    private String gameId;
     private MessageChannel channel;
+    private ImageFormat imageFormat;
     private Member white;
     private String whiteName;
     private Member black;
     private String blackName;
-    private JDA jda;
+
+    // The AI's progress message while it thinks
+    private CompletableFuture<Message> thinkingMessage;
+    private long thinkingStart;
+    private long lastThinkingUpdate;
 
     /**
      * ChessBotIO constructor
+     * @param gameId the ID the game's files are kept under
      * @param channel the text channel the game is being played in
      * @param player1 the user playing white
+     * @param whiteName the white player's name
      * @param player2 the user playing black
+     * @param blackName the black player's name
+     * @param imageFormat the format board images are rendered in
      */
-    public ChessBotIO(JDA jda, MessageChannel channel, Member player1, Member player2) {
+    public ChessBotIO(String gameId, MessageChannel channel, Member player1, String whiteName, Member player2,
+                      String blackName, ImageFormat imageFormat) {
+        this.gameId = gameId;
         this.channel = channel;
         white = player1;
-        whiteName = jda.retrieveUserById(player1.getId()).complete().getName();
+        this.whiteName = whiteName;
         black = player2;
-        blackName = jda.retrieveUserById(player2.getId()).complete().getName();
+        this.blackName = blackName;
+        this.imageFormat = imageFormat;
     }
 
     /**
@@ -46,40 +63,99 @@ public class ChessBotIO implements ChessGameIO {
         channel.sendMessage(message).queue();
     }
 
+    /**
+     * Starts timing the AI's search for its progress message
+     */
+    public void startThinking() {
+        thinkingStart = System.currentTimeMillis();
+        lastThinkingUpdate = 0;
+        thinkingMessage = null;
+    }
+
+    /**
+     * Posts or edits the AI's progress message, once the search has taken a while and at most once
+     * per interval
+     * @param progress the progress to show
+     */
+    public void showThinking(String progress) {
+        long now = System.currentTimeMillis();
+        if (now - thinkingStart < THINKING_DELAY_MILLIS || now - lastThinkingUpdate < THINKING_INTERVAL_MILLIS) {
+            return;
+        }
+        lastThinkingUpdate = now;
+        if (thinkingMessage == null) {
+            thinkingMessage = channel.sendMessage(progress).submit();
+        } else {
+            thinkingMessage.thenAccept(message -> message.editMessage(progress).queue());
+        }
+    }
+
+    /**
+     * Deletes the AI's progress message once it has moved
+     */
+    public void stopThinking() {
+        if (thinkingMessage != null) {
+            thinkingMessage.thenAccept(message -> message.delete().queue());
+            thinkingMessage = null;
+        }
+    }
+
     /**
      * Close input stream not needed for bot
      */
     public void closeInputStream() {}
 
     /**
-     * Sends the board to the text channel the game is being played in
+     * Sets the format board images are rendered in
+     * @param imageFormat the image format
+     */
+    public void setImageFormat(ImageFormat imageFormat) {
+        this.imageFormat = imageFormat;
+    }
+
+    /**
+     * Gets the format board images are rendered in
+     * @return the image format
+     */
+    @Override
+    public ImageFormat getImageFormat() {
+        return imageFormat;
+    }
+
+    /**
+     * Sends the board to the text channel the game is being played in. Raster images are shown in the
+     * embed, and other formats are attached
+     * @param boardImage the encoded board image
+     * @param format the image's format
      */
-    public void update() {
-        File gameBoard = FileHandler.getBoardFile(whiteName, blackName);
+    public void update(byte[] boardImage, ImageFormat format) {
         EmbedBuilder embed = new EmbedBuilder();
         embed.setTitle(String.format("%1$s vs %2$s", whiteName, blackName));
         embed.setColor(Color.BLUE);
-        embed.setImage("attachment://" + gameBoard);
+        if (format.isRaster()) {
+            embed.setImage("attachment://" + format.getFileName());
+        }
         channel.sendMessageEmbeds(embed.build())
-                .addFiles(FileUpload.fromData(gameBoard)).queue();
+                .addFiles(FileUpload.fromData(boardImage, format.getFileName())).queue();
     }
 
     /**
      * Sends the game PGN file to the text channel
      */
     public void sendPGN() {
-        File pgn = FileHandler.getPGNFile(whiteName, blackName);
+        File pgn = FileHandler.getPGNFile(gameId);
         EmbedBuilder embed = new EmbedBuilder();
         embed.setDescription("Download this PGN and upload it to an analysis board at " +
                 "https://www.chess.com/analysis?tab=analysis");
         embed.setColor(Color.GREEN);
-        channel.sendMessageEmbeds(embed.build()).addFiles(FileUpload.fromData(pgn)).queue();
+        channel.sendMessageEmbeds(embed.build()).addFiles(
+                FileUpload.fromData(pgn, String.format(PGN_NAME, whiteName, blackName))).queue();
     }
 
     /**
      * Clean up files in bin
      */
     public void cleanup() {
-        FileHandler.deleteDirectory(whiteName, blackName);
+        FileHandler.deleteDirectory(gameId);
     }
 }
@@ -0,0 +1,108 @@
+package com.ook.bot;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bounded cache of Discord user names by user ID. Names expire after a while so renamed users are
+ * picked up, and the least recently used names are dropped once the cache is full
+ */
+public class UserNameCache {
+    private static final int DEFAULT_MAX_SIZE = 1024;
+    private static final long DEFAULT_EXPIRY_MILLIS = 10 * 60 * 1000; // 10 minutes
+
+    private final int maxSize;
+    private final long expiryMillis;
+    private final Map<String, CachedName> names;
+
+    /**
+     * A name and when it was cached
+     */
+    private static class CachedName {
+        private final String name;
+        private final long time;
+
+        private CachedName(String name, long time) {
+            this.name = name;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Creates a cache with the default size and expiry
+     */
+    public UserNameCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_EXPIRY_MILLIS);
+    }
+
+    /**
+     * Creates a cache
+     * @param maxSize the most names to keep
+     * @param expiryMillis how long a name is kept in milliseconds
+     */
+    public UserNameCache(int maxSize, long expiryMillis) {
+        this.maxSize = maxSize;
+        this.expiryMillis = expiryMillis;
+        names = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedName> eldest) {
+                return size() > UserNameCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Caches a user's name, from a user object the bot already has
+     * @param user the user
+     */
+    public void put(User user) {
+        put(user.getId(), user.getName());
+    }
+
+    /**
+     * Caches a user's name
+     * @param userID the user's ID
+     * @param name the user's name
+     */
+    public synchronized void put(String userID, String name) {
+        names.put(userID, new CachedName(name, System.currentTimeMillis()));
+    }
+
+    /**
+     * Gets a user's name if it is cached and hasn't expired
+     * @param userID the user's ID
+     * @return the name, or null if it isn't cached
+     */
+    public synchronized String getIfPresent(String userID) {
+        CachedName cached = names.get(userID);
+        if (cached == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - cached.time > expiryMillis) {
+            names.remove(userID);
+            return null;
+        }
+        return cached.name;
+    }
+
+    /**
+     * Gets a user's name, retrieving it from Discord without blocking if it isn't cached
+     * @param jda the JDA object
+     * @param userID the user's ID
+     * @return the name once it is known
+     */
+    public CompletableFuture<String> retrieve(JDA jda, String userID) {
+        String name = getIfPresent(userID);
+        if (name != null) {
+            return CompletableFuture.completedFuture(name);
+        }
+        return jda.retrieveUserById(userID).submit().thenApply(user -> {
+            put(user);
+            return user.getName();
+        });
+    }
+}
@@ -0,0 +1,168 @@
+package com.ook.game;
+
+/**
+ * Precomputed attack sets for bitboard move generation
+ */
+public class Attacks {
+    // Ray directions: north, east, south, west, northeast, northwest, southeast, southwest
+    private static final int[] DX = {0, 1, 0, -1, 1, -1, 1, -1};
+    private static final int[] DY = {1, 0, -1, 0, 1, 1, -1, -1};
+    private static final boolean[] POSITIVE = {true, true, false, false, true, true, false, false};
+    private static final int[] OPPOSITE = {2, 3, 0, 1, 7, 6, 5, 4};
+
+    private static final long[] knightAttacks = new long[64];
+    private static final long[] kingAttacks = new long[64];
+    private static final long[][] pawnAttacks = new long[2][64];
+    private static final long[][] rays = new long[8][64];
+    private static final long[][] betweenSquares = new long[64][64];
+    private static final long[][] lines = new long[64][64];
+
+    static {
+        int[][] knightOffsets = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+
+        for (int square = 0; square < 64; square++) {
+            int x = square % Board.SIZE;
+            int y = square / Board.SIZE;
+
+            for (int[] offset : knightOffsets) {
+                knightAttacks[square] |= bit(x + offset[0], y + offset[1]);
+            }
+            for (int direction = 0; direction < 8; direction++) {
+                kingAttacks[square] |= bit(x + DX[direction], y + DY[direction]);
+
+                // All squares in the direction up to the edge of the board
+                for (int i = 1; i < Board.SIZE; i++) {
+                    rays[direction][square] |= bit(x + i * DX[direction], y + i * DY[direction]);
+                }
+            }
+            pawnAttacks[Piece.WHITE][square] = bit(x - 1, y + 1) | bit(x + 1, y + 1);
+            pawnAttacks[Piece.BLACK][square] = bit(x - 1, y - 1) | bit(x + 1, y - 1);
+        }
+
+        // Squares between and lines through every pair of squares on a shared rank, file or diagonal
+        for (int square = 0; square < 64; square++) {
+            for (int direction = 0; direction < 8; direction++) {
+                int opposite = OPPOSITE[direction];
+                long line = rays[direction][square] | rays[opposite][square] | (1L << square);
+                long targets = rays[direction][square];
+                while (targets != 0) {
+                    int target = Long.numberOfTrailingZeros(targets);
+                    targets &= targets - 1;
+                    betweenSquares[square][target] = rays[direction][square] & rays[opposite][target];
+                    lines[square][target] = line;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the bitboard of a square, or 0 if it is off the board
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the square's bit
+     */
+    private static long bit(int x, int y) {
+        if (x < 0 || x >= Board.SIZE || y < 0 || y >= Board.SIZE) {
+            return 0;
+        }
+        return 1L << Position.square(x, y);
+    }
+
+    /**
+     * Gets the squares a knight attacks
+     * @param square the knight's square
+     * @return the attacked squares
+     */
+    public static long knight(int square) {
+        return knightAttacks[square];
+    }
+
+    /**
+     * Gets the squares a king attacks
+     * @param square the king's square
+     * @return the attacked squares
+     */
+    public static long king(int square) {
+        return kingAttacks[square];
+    }
+
+    /**
+     * Gets the squares a pawn attacks
+     * @param team the pawn's team
+     * @param square the pawn's square
+     * @return the attacked squares
+     */
+    public static long pawn(int team, int square) {
+        return pawnAttacks[team][square];
+    }
+
+    /**
+     * Gets the squares strictly between two squares on a shared rank, file or diagonal
+     * @param from one square
+     * @param to the other square
+     * @return the squares between (0 if the squares don't share a line)
+     */
+    public static long between(int from, int to) {
+        return betweenSquares[from][to];
+    }
+
+    /**
+     * Gets the whole rank, file or diagonal through two squares
+     * @param from one square
+     * @param to the other square
+     * @return the line's squares (0 if the squares don't share a line)
+     */
+    public static long line(int from, int to) {
+        return lines[from][to];
+    }
+
+    /**
+     * Gets the squares attacked along a ray, stopping at (and including) the first blocker
+     * @param direction the ray direction
+     * @param square the starting square
+     * @param occupied the occupied squares
+     * @return the attacked squares
+     */
+    private static long ray(int direction, int square, long occupied) {
+        long attacks = rays[direction][square];
+        long blockers = attacks & occupied;
+        if (blockers != 0) {
+            int blocker = POSITIVE[direction] ? Long.numberOfTrailingZeros(blockers)
+                    : 63 - Long.numberOfLeadingZeros(blockers);
+            attacks ^= rays[direction][blocker];
+        }
+        return attacks;
+    }
+
+    /**
+     * Gets the squares a rook attacks
+     * @param square the rook's square
+     * @param occupied the occupied squares
+     * @return the attacked squares
+     */
+    public static long rook(int square, long occupied) {
+        return ray(0, square, occupied) | ray(1, square, occupied) |
+                ray(2, square, occupied) | ray(3, square, occupied);
+    }
+
+    /**
+     * Gets the squares a bishop attacks
+     * @param square the bishop's square
+     * @param occupied the occupied squares
+     * @return the attacked squares
+     */
+    public static long bishop(int square, long occupied) {
+        return ray(4, square, occupied) | ray(5, square, occupied) |
+                ray(6, square, occupied) | ray(7, square, occupied);
+    }
+
+    /**
+     * Gets the squares a queen attacks
+     * @param square the queen's square
+     * @param occupied the occupied squares
+     * @return the attacked squares
+     */
+    public static long queen(int square, long occupied) {
+        return rook(square, occupied) | bishop(square, occupied);
+    }
+}
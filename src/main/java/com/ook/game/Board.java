@@ -2,26 +2,34 @@ package com.ook.game;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * Board class
+ *
+ * A view of Piece objects on top of a bitboard Position. Every change made
+ * through the board is mirrored into the position.
  */
 public class Board {
     public static final int SIZE = 8;
-    private final Piece[][] board;
+    private final Piece[] squares;
+    private final Position position;
     private final ArrayList<Piece> whitePieces;
     private final ArrayList<Piece> blackPieces;
-    private final HashMap<Piece, Integer> moveCounter;
+
+    // En passant square left by each move made on the board
+    private int[] enPassantHistory;
+    private int moveCount;
 
     /**
      * Board constructor
      */
     public Board() {
-        board = new Piece[SIZE][SIZE];
+        squares = new Piece[SIZE * SIZE];
+        position = new Position();
         whitePieces = new ArrayList<>();
         blackPieces = new ArrayList<>();
-        moveCounter = new HashMap<>();
+        enPassantHistory = new int[64];
 
         // Piece order: Rook Knight Bishop Queen King Bishop Knight Rook
 
@@ -54,15 +62,63 @@ public class Board {
         }
     }
 
+    /**
+     * Board constructor that sets up the pieces of a position
+     * @param position the position to copy pieces, castling rights and en passant square from
+     */
+    public Board(Position position) {
+        squares = new Piece[SIZE * SIZE];
+        this.position = new Position();
+        whitePieces = new ArrayList<>();
+        blackPieces = new ArrayList<>();
+        enPassantHistory = new int[64];
+
+        for (int square = 0; square < SIZE * SIZE; square++) {
+            int type = position.getType(square);
+            if (type != 0) {
+                setUpPiece(position.getTeam(square), type, new Point(square % SIZE, square / SIZE));
+            }
+        }
+
+        // Kings and rooks without castling rights count as having moved
+        int rights = position.getCastlingRights();
+        markMovedUnless(4, 0, Piece.KING, (rights & (Position.WHITE_KINGSIDE | Position.WHITE_QUEENSIDE)) != 0);
+        markMovedUnless(7, 0, Piece.ROOK, (rights & Position.WHITE_KINGSIDE) != 0);
+        markMovedUnless(0, 0, Piece.ROOK, (rights & Position.WHITE_QUEENSIDE) != 0);
+        markMovedUnless(4, 7, Piece.KING, (rights & (Position.BLACK_KINGSIDE | Position.BLACK_QUEENSIDE)) != 0);
+        markMovedUnless(7, 7, Piece.ROOK, (rights & Position.BLACK_KINGSIDE) != 0);
+        markMovedUnless(0, 7, Piece.ROOK, (rights & Position.BLACK_QUEENSIDE) != 0);
+
+        if (position.getEnPassantSquare() != Position.NO_SQUARE) {
+            enPassantHistory[moveCount++] = position.getEnPassantSquare();
+        }
+    }
+
+    /**
+     * Marks a piece on its starting square as moved unless it keeps a castling right
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param type the type the piece must have
+     * @param canCastle whether the piece keeps a castling right
+     */
+    private void markMovedUnless(int x, int y, int type, boolean canCastle) {
+        Piece piece = get(x, y);
+        if (piece != null && piece.getType() == type && !canCastle) {
+            piece.setMoveCount(1);
+        }
+    }
+
     /**
      * Board constructor that copies another board
      * @param otherBoard the other chessboard
      */
     public Board(Board otherBoard) {
-        board = new Piece[SIZE][SIZE];
+        squares = new Piece[SIZE * SIZE];
+        position = new Position();
         whitePieces = new ArrayList<>();
         blackPieces = new ArrayList<>();
-        moveCounter = new HashMap<>();
+        enPassantHistory = Arrays.copyOf(otherBoard.enPassantHistory, otherBoard.enPassantHistory.length);
+        moveCount = otherBoard.moveCount;
 
         for (int i = 0; i < SIZE; i++) {
             for (int j = 0; j < SIZE; j++) {
@@ -71,6 +127,7 @@ public class Board {
                     continue;
                 }
                 setUpPiece(otherPiece.getTeam(), otherPiece.getType(), new Point(i, j));
+                get(i, j).setMoveCount(otherPiece.getMoveCount());
             }
         }
     }
@@ -83,13 +140,12 @@ public class Board {
      */
     public void setUpPiece(int team, int type, Point location) {
         Piece piece = new Piece(team, type, location);
-        board[location.x][location.y] = piece;
+        set(location, piece);
         if (team == Piece.WHITE) {
             whitePieces.add(piece);
         } else {
             blackPieces.add(piece);
         }
-        moveCounter.put(piece, 0);
     }
 
     /**
@@ -97,6 +153,12 @@ public class Board {
      * @return the 2D array of pieces
      */
     public Piece[][] getBoard() {
+        Piece[][] board = new Piece[SIZE][SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                board[i][j] = squares[i + SIZE * j];
+            }
+        }
         return board;
     }
 
@@ -108,7 +170,7 @@ public class Board {
         Piece[][] flipped = new Piece[SIZE][SIZE];
         for (int i = 0; i < SIZE; i++) {
             for (int j = 0; j < SIZE; j++) {
-                flipped[SIZE - i - 1][SIZE - j - 1] = board[i][j];
+                flipped[SIZE - i - 1][SIZE - j - 1] = squares[i + SIZE * j];
             }
         }
         return flipped;
@@ -135,7 +197,7 @@ public class Board {
         if (!isInBounds(x, y)) {
             return null;
         }
-        return board[x][y];
+        return squares[x + SIZE * y];
     }
 
     /**
@@ -150,7 +212,7 @@ public class Board {
         if (!isInBounds(coords.x, coords.y)) {
             return null;
         }
-        return board[coords.x][coords.y];
+        return squares[coords.x + SIZE * coords.y];
     }
 
     /**
@@ -162,9 +224,12 @@ public class Board {
         if (!isInBounds(coords.x, coords.y)) {
             return;
         }
-        board[coords.x][coords.y] = piece;
+        int square = coords.x + SIZE * coords.y;
+        squares[square] = piece;
+        position.remove(square);
         if (piece != null) {
             piece.setLocation(coords);
+            position.put(piece.getTeam(), piece.getType(), square);
         }
     }
 
@@ -177,7 +242,17 @@ public class Board {
         Point current = piece.getLocation();
         set(coords, piece);
         set(current, null);
-        moveCounter.put(piece, moveCounter.get(piece) + 1);
+        piece.setMoveCount(piece.getMoveCount() + 1);
+
+        // A double pawn push leaves an en passant square behind it
+        int enPassantSquare = Position.NO_SQUARE;
+        if (piece.getType() == Piece.PAWN && Math.abs(coords.y - current.y) == 2) {
+            enPassantSquare = Position.square(coords.x, (coords.y + current.y) / 2);
+        }
+        if (moveCount == enPassantHistory.length) {
+            enPassantHistory = Arrays.copyOf(enPassantHistory, 2 * moveCount);
+        }
+        enPassantHistory[moveCount++] = enPassantSquare;
     }
 
     /**
@@ -189,7 +264,18 @@ public class Board {
         Point current = piece.getLocation();
         set(coords, piece);
         set(current, null);
-        moveCounter.put(piece, moveCounter.get(piece) - 1);
+        piece.setMoveCount(piece.getMoveCount() - 1);
+        moveCount--;
+    }
+
+    /**
+     * Promotes a pawn to another piece type
+     * @param pawn the pawn to promote
+     * @param type the type to promote to
+     */
+    public void promote(Piece pawn, int type) {
+        pawn.setType(type);
+        set(pawn.getLocation(), pawn);
     }
 
     /**
@@ -202,10 +288,96 @@ public class Board {
     }
 
     /**
-     * Gets the move counter HashMap
-     * @return a HashMap of pieces and their move counts
+     * Gets the en passant target square left by the last move
+     * @return the en passant square (null if none)
+     */
+    public Point getEnPassantSquare() {
+        if (moveCount == 0 || enPassantHistory[moveCount - 1] == Position.NO_SQUARE) {
+            return null;
+        }
+        int square = enPassantHistory[moveCount - 1];
+        return new Point(square % SIZE, square / SIZE);
+    }
+
+    /**
+     * Gets the castling rights implied by which kings and rooks have moved
+     * @return the castling rights bitmask
+     */
+    public int getCastlingRights() {
+        int rights = 0;
+        if (canCastle(Piece.WHITE, 7)) rights |= Position.WHITE_KINGSIDE;
+        if (canCastle(Piece.WHITE, 0)) rights |= Position.WHITE_QUEENSIDE;
+        if (canCastle(Piece.BLACK, 7)) rights |= Position.BLACK_KINGSIDE;
+        if (canCastle(Piece.BLACK, 0)) rights |= Position.BLACK_QUEENSIDE;
+        return rights;
+    }
+
+    /**
+     * Returns whether a team's king and rook are both unmoved on their starting squares
+     * @param team the team
+     * @param rookX the x coordinate of the rook
+     * @return whether the team keeps the castling right on that side
+     */
+    private boolean canCastle(int team, int rookX) {
+        int y = (team == Piece.WHITE) ? 0 : SIZE - 1;
+        Piece king = get(4, y);
+        Piece rook = get(rookX, y);
+        return king != null && king.getTeam() == team && king.getType() == Piece.KING && king.getMoveCount() == 0 &&
+                rook != null && rook.getTeam() == team && rook.getType() == Piece.ROOK && rook.getMoveCount() == 0;
+    }
+
+    /**
+     * Returns whether a square is attacked by a team, looking outwards from the square
+     * instead of generating the team's moves
+     * @param coords the square's coordinates
+     * @param byTeam the attacking team
+     * @return whether any piece of the team attacks the square
+     */
+    public boolean isAttacked(Point coords, int byTeam) {
+        return position.isSquareAttacked(Position.square(coords.x, coords.y), byTeam);
+    }
+
+    /**
+     * Gets all pieces of a team that attack a square
+     * @param coords the square's coordinates
+     * @param byTeam the attacking team
+     * @return a bitboard of the attacking pieces' squares
+     */
+    public long getAttackers(Point coords, int byTeam) {
+        return position.getAttackers(Position.square(coords.x, coords.y), byTeam);
+    }
+
+    /**
+     * Returns whether a team's king is attacked
+     * @param team the team
+     * @return whether the team is in check
+     */
+    public boolean isInCheck(int team) {
+        return position.isInCheck(team);
+    }
+
+    /**
+     * Gets the Zobrist key of the board, kept up to date by every move, undo and capture
+     * @param sideToMove the team to move
+     * @return the Zobrist key
+     */
+    public long getZobristKey(int sideToMove) {
+        Point enPassant = getEnPassantSquare();
+        return position.getKey(sideToMove, getCastlingRights(),
+                enPassant == null ? Position.NO_SQUARE : Position.square(enPassant.x, enPassant.y));
+    }
+
+    /**
+     * Returns a copy of the bitboard position behind this board
+     * @param sideToMove the team to move
+     * @return a Position with the same pieces, castling rights and en passant square
      */
-    public HashMap<Piece, Integer> getMoveCounter() {
-        return moveCounter;
+    public Position getPosition(int sideToMove) {
+        Position copy = new Position(position);
+        Point enPassant = getEnPassantSquare();
+        copy.setSideToMove(sideToMove);
+        copy.setCastlingRights(getCastlingRights());
+        copy.setEnPassantSquare(enPassant == null ? Position.NO_SQUARE : Position.square(enPassant.x, enPassant.y));
+        return copy;
     }
 }
@@ -0,0 +1,229 @@
+package com.ook.game;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Renders a game's board images in one format. The last frame of each orientation is kept, and only the
+ * squares whose piece or highlight changed since it was drawn are drawn again
+ */
+public class BoardRenderer {
+    private static final int NORMAL = 0;
+    private static final int FLIPPED = 1;
+
+    // Square contents: the piece (team * 6 + type, 0 for none) and highlight flags
+    private static final int PIECES = 6;
+    private static final int PIECE_MASK = 0xF;
+    private static final int HIGHLIGHT_INITIAL = 1 << 4;
+    private static final int HIGHLIGHT_DESTINATION = 1 << 5;
+
+    // Solid chess symbols by piece type, drawn in either team's colour
+    private static final String[] SVG_PIECES = {"&#9823;", "&#9822;", "&#9821;", "&#9820;", "&#9819;", "&#9818;"};
+
+    private final ImageFormat format;
+    private final SpriteAtlas atlas;
+    private final BufferedImage[] frames = new BufferedImage[2];
+    private final int[][] drawn = new int[2][]; // What each frame's squares show, indexed x + 8 * y
+    private final int[] contents = new int[Board.SIZE * Board.SIZE];
+    private int squaresDrawn; // Squares drawn for the last frame
+
+    /**
+     * Creates a renderer using the shared sprite atlas of a format's size
+     * @param format the image format
+     * @throws IOException if an image file is not found
+     */
+    public BoardRenderer(ImageFormat format) throws IOException {
+        this.format = format;
+        atlas = SpriteAtlas.get(format.getSize());
+    }
+
+    /**
+     * Checks if the renderer draws images for a format. Formats that only differ in compression share
+     * a renderer
+     * @param format the image format
+     * @return true if the format's images can be rendered
+     */
+    public boolean canRender(ImageFormat format) {
+        return this.format.getType() == format.getType() && this.format.getSize() == format.getSize();
+    }
+
+    /**
+     * Works out what each square should show
+     * @param theBoard the board as drawn
+     * @param orientation the board's orientation
+     * @param lastMovedInitialCoords the initial coordinates of the last moved piece
+     * @param lastMoved the last moved piece
+     */
+    private void findContents(Piece[][] theBoard, int orientation, Point lastMovedInitialCoords, Piece lastMoved) {
+        Arrays.fill(contents, 0);
+        for (int i = 0; i < Board.SIZE; i++) {
+            for (int j = 0; j < Board.SIZE; j++) {
+                Piece piece = theBoard[i][j];
+                if (piece == null) { // No piece on square
+                    continue;
+                }
+                contents[i + Board.SIZE * j] |= piece.getTeam() * PIECES + piece.getType();
+
+                // Highlight the initial coords and destination of the last moved piece
+                if (piece == lastMoved) {
+                    contents[i + Board.SIZE * j] |= HIGHLIGHT_DESTINATION;
+                    int initialX = lastMovedInitialCoords.x;
+                    int initialY = lastMovedInitialCoords.y;
+                    if (orientation == FLIPPED) {
+                        initialX = Board.SIZE - 1 - initialX;
+                        initialY = Board.SIZE - 1 - initialY;
+                    }
+                    contents[initialX + Board.SIZE * initialY] |= HIGHLIGHT_INITIAL;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the frame cache key of the current board position's image in a format. Boards that look the
+     * same get the same key, whichever game or orientation they come from
+     * @param format the image format
+     * @param board the chessboard
+     * @param whiteToPlay whether it is white's turn
+     * @param lastMovedInitialCoords the initial coordinates of the last moved piece
+     * @param lastMoved the last moved piece
+     * @param flipBoard whether to show the board from the side to move
+     * @return the frame cache key
+     */
+    public FrameCache.Key frameKey(ImageFormat format, Board board, boolean whiteToPlay,
+                                   Point lastMovedInitialCoords, Piece lastMoved, boolean flipBoard) {
+        int orientation = (flipBoard && !whiteToPlay) ? FLIPPED : NORMAL;
+        Piece[][] theBoard = orientation == FLIPPED ? board.flipBoard() : board.getBoard();
+        findContents(theBoard, orientation, lastMovedInitialCoords, lastMoved);
+
+        byte[] squares = new byte[contents.length];
+        for (int square = 0; square < contents.length; square++) {
+            squares[square] = (byte) contents[square];
+        }
+        return new FrameCache.Key(format, squares);
+    }
+
+    /**
+     * Renders the current board position as a raster image. The returned image is reused by the next
+     * render in the same orientation
+     * @param board the chessboard
+     * @param whiteToPlay whether it is white's turn
+     * @param lastMovedInitialCoords the initial coordinates of the last moved piece
+     * @param lastMoved the last moved piece
+     * @param flipBoard whether to show the board from the side to move
+     * @return the board image, in RGB or palette indices depending on the format
+     */
+    public BufferedImage render(Board board, boolean whiteToPlay, Point lastMovedInitialCoords,
+                                Piece lastMoved, boolean flipBoard) {
+        int orientation = (flipBoard && !whiteToPlay) ? FLIPPED : NORMAL;
+        Piece[][] theBoard = orientation == FLIPPED ? board.flipBoard() : board.getBoard();
+        findContents(theBoard, orientation, lastMovedInitialCoords, lastMoved);
+
+        // The first frame in an orientation is drawn in full
+        BufferedImage frameImage = frames[orientation];
+        if (frameImage == null) {
+            if (format.getType() == ImageFormat.Type.INDEXED_PNG) {
+                frameImage = new BufferedImage(atlas.getSize(), atlas.getSize(), BufferedImage.TYPE_BYTE_INDEXED,
+                        atlas.getColorModel());
+            } else {
+                frameImage = new BufferedImage(atlas.getSize(), atlas.getSize(), BufferedImage.TYPE_INT_RGB);
+            }
+            frames[orientation] = frameImage;
+            drawn[orientation] = new int[contents.length];
+            atlas.drawBackground(pixels(frameImage));
+        }
+        Object frame = pixels(frameImage);
+
+        // Draw the squares that changed
+        int[] squares = drawn[orientation];
+        squaresDrawn = 0;
+        for (int square = 0; square < contents.length; square++) {
+            if (squares[square] == contents[square]) {
+                continue;
+            }
+            int x = square % Board.SIZE;
+            int y = square / Board.SIZE;
+            atlas.drawSquare(frame, x, y);
+            if ((contents[square] & HIGHLIGHT_INITIAL) != 0) {
+                atlas.drawHighlight(frame, true, x, y);
+            }
+            if ((contents[square] & HIGHLIGHT_DESTINATION) != 0) {
+                atlas.drawHighlight(frame, false, x, y);
+            }
+            if (theBoard[x][y] != null) {
+                atlas.drawPiece(frame, theBoard[x][y], x, y);
+            }
+            squares[square] = contents[square];
+            squaresDrawn++;
+        }
+        return frameImage;
+    }
+
+    /**
+     * Gets a frame's pixel array
+     * @param frameImage the frame image
+     * @return the int[] or byte[] backing the image
+     */
+    private static Object pixels(BufferedImage frameImage) {
+        if (frameImage.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
+            return ((DataBufferByte) frameImage.getRaster().getDataBuffer()).getData();
+        }
+        return ((DataBufferInt) frameImage.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Renders the current board position as SVG, with squares in the sprites' colours and the pieces as
+     * chess symbols
+     * @param board the chessboard
+     * @param whiteToPlay whether it is white's turn
+     * @param lastMovedInitialCoords the initial coordinates of the last moved piece
+     * @param lastMoved the last moved piece
+     * @param flipBoard whether to show the board from the side to move
+     * @return the SVG document
+     */
+    public String renderSVG(Board board, boolean whiteToPlay, Point lastMovedInitialCoords,
+                            Piece lastMoved, boolean flipBoard) {
+        int orientation = (flipBoard && !whiteToPlay) ? FLIPPED : NORMAL;
+        Piece[][] theBoard = orientation == FLIPPED ? board.flipBoard() : board.getBoard();
+        findContents(theBoard, orientation, lastMovedInitialCoords, lastMoved);
+
+        // One unit per square
+        StringBuilder svg = new StringBuilder(8 * 1024);
+        svg.append(String.format("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%1$d\" height=\"%1$d\" " +
+                "viewBox=\"0 0 8 8\" font-size=\"0.8\" text-anchor=\"middle\" stroke-width=\"0.03\">\n",
+                atlas.getSize()));
+        for (int square = 0; square < contents.length; square++) {
+            int x = square % Board.SIZE;
+            int y = square / Board.SIZE;
+            int color = atlas.getSquareColor(x, y);
+            if ((contents[square] & HIGHLIGHT_INITIAL) != 0) {
+                color = atlas.getHighlightColor(true);
+            } else if ((contents[square] & HIGHLIGHT_DESTINATION) != 0) {
+                color = atlas.getHighlightColor(false);
+            }
+            svg.append(String.format("<rect x=\"%d\" y=\"%d\" width=\"1\" height=\"1\" fill=\"#%06x\"/>\n",
+                    x, Board.SIZE - 1 - y, color));
+
+            int piece = contents[square] & PIECE_MASK;
+            if (piece != 0) {
+                boolean white = piece <= PIECES;
+                svg.append(String.format("<text x=\"%d.5\" y=\"%d.8\" fill=\"%s\" stroke=\"#000\">%s</text>\n",
+                        x, Board.SIZE - 1 - y, white ? "#fff" : "#000", SVG_PIECES[(piece - 1) % PIECES]));
+            }
+        }
+        svg.append("</svg>\n");
+        return svg.toString();
+    }
+
+    /**
+     * Gets the number of squares drawn for the last frame
+     * @return the squares drawn
+     */
+    public int getSquaresDrawn() {
+        return squaresDrawn;
+    }
+}
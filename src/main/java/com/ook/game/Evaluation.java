@@ -0,0 +1,160 @@
+package com.ook.game;
+
+/**
+ * Material and piece square table scores, split into middlegame and endgame parts
+ *
+ * Positions keep running totals of these scores as pieces are put, removed and moved,
+ * so evaluating a position only blends the two totals by game phase.
+ */
+public class Evaluation {
+    // Indexed by piece type
+    public static final int[] PIECE_VALUES = {0, 100, 300, 300, 500, 900, 20000};
+    private static final int[] PHASE_WEIGHTS = {0, 0, 1, 1, 2, 4, 0};
+    public static final int TOTAL_PHASE = 24; // Phase with all minor and major pieces on the board
+
+    private static final int TABLE_MULTIPLIER = 3;
+
+    // Piece square tables from white's side, starting from the 8th rank
+    private static final int[] PAWN_TABLE = {
+            0,  0,  0,  0,  0,  0,  0,  0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+            5,  5, 10, 25, 25, 10,  5,  5,
+            0,  0, 10, 25, 25, 10,  0,  0,
+            5,  0, 10,  0,  0, 10,  0,  5,
+            5, 10, 10,-20,-20, 10, 10,  5,
+            0,  0,  0,  0,  0,  0,  0,  0
+    };
+
+    private static final int[] KNIGHT_TABLE = {
+            -50,-40,-30,-30,-30,-30,-40,-50,
+            -40,-20,  0,  0,  0,  0,-20,-40,
+            -30,  0, 10, 15, 15, 10,  0,-30,
+            -30,  5, 15, 20, 20, 15,  5,-30,
+            -30,  0, 15, 20, 20, 15,  0,-30,
+            -30,  5, 20, 15, 15, 20,  5,-30,
+            -40,-20,  0,  5,  5,  0,-20,-40,
+            -50,-40,-30,-30,-30,-30,-40,-50,
+    };
+
+    private static final int[] BISHOP_TABLE = {
+            -20,-10,-10,-10,-10,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5, 10, 10,  5,  0,-10,
+            -10,  5,  5, 10, 10,  5,  5,-10,
+            -10,  0, 20, 10, 10, 20,  0,-10,
+            -10, 15, 15, 10, 10, 15, 15,-10,
+            -10,  5,  0,  0,  0,  0,  5,-10,
+            -20,-10,-10,-10,-10,-10,-10,-20,
+    };
+
+    private static final int[] ROOK_TABLE = {
+            0,  0,  0,  0,  0,  0,  0,  0,
+            5, 10, 10, 10, 10, 10, 10,  5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            0,  0,  10, 10, 10, 10,  0,  0
+    };
+
+    private static final int[] QUEEN_TABLE = {
+            -20,-10,-10, -5, -5,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+            -5,  0,  5,  5,  5,  5,  0, -5,
+             0,  0,  5,  5,  5,  5,  0, -5,
+            -10,  5,  5,  5,  5,  5,  0,-10,
+            -10,  0,  5,  0,  0,  0,  0,-10,
+            -20,-10,-10, -5, -5,-10,-10,-20
+    };
+
+    private static final int[] KING_TABLE = {
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -20,-30,-30,-40,-40,-30,-30,-20,
+            -10,-20,-20,-20,-20,-20,-20,-10,
+            10,  10,  0,  0,  0,  0, 10, 10,
+            30,  50, 70,  0,  0, 10, 70, 30
+    };
+
+    private static final int[] KING_ENDGAME_TABLE = {
+            -50,-40,-30,-20,-20,-30,-40,-50,
+            -30,-20,-10,  0,  0,-10,-20,-30,
+            -30,-10, 20, 30, 30, 20,-10,-30,
+            -30,-10, 30, 40, 40, 30,-10,-30,
+            -30,-10, 30, 40, 40, 30,-10,-30,
+            -30,-10, 20, 30, 30, 20,-10,-30,
+            -30,-30,  0,  0,  0,  0,-30,-30,
+            -50,-30,-30,-30,-30,-30,-30,-50
+    };
+
+    private static final int[][] MIDGAME_TABLES = {null, PAWN_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE,
+            QUEEN_TABLE, KING_TABLE};
+    private static final int[][] ENDGAME_TABLES = {null, PAWN_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE,
+            QUEEN_TABLE, KING_ENDGAME_TABLE};
+
+    // Material plus piece square score of each piece set on each square (negative for black)
+    private static final int[][] midgameScores = new int[12][64];
+    private static final int[][] endgameScores = new int[12][64];
+
+    static {
+        for (int team = Piece.WHITE; team <= Piece.BLACK; team++) {
+            int sign = (team == Piece.WHITE) ? 1 : -1;
+            for (int type = Piece.PAWN; type <= Piece.KING; type++) {
+                int index = Position.pieceIndex(team, type);
+                for (int square = 0; square < 64; square++) {
+                    // Tables start from white's 8th rank, which is black's 1st rank
+                    int tableSquare = (team == Piece.WHITE) ? square ^ 56 : square;
+                    midgameScores[index][square] = sign * (PIECE_VALUES[type] +
+                            TABLE_MULTIPLIER * MIDGAME_TABLES[type][tableSquare]);
+                    endgameScores[index][square] = sign * (PIECE_VALUES[type] +
+                            TABLE_MULTIPLIER * ENDGAME_TABLES[type][tableSquare]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the middlegame score of a piece on a square
+     * @param index the piece set index
+     * @param square the square
+     * @return the score from white's side
+     */
+    public static int midgame(int index, int square) {
+        return midgameScores[index][square];
+    }
+
+    /**
+     * Gets the endgame score of a piece on a square
+     * @param index the piece set index
+     * @param square the square
+     * @return the score from white's side
+     */
+    public static int endgame(int index, int square) {
+        return endgameScores[index][square];
+    }
+
+    /**
+     * Gets how much a piece counts towards the game phase
+     * @param index the piece set index
+     * @return the phase weight
+     */
+    public static int phase(int index) {
+        return PHASE_WEIGHTS[index % 6 + 1];
+    }
+
+    /**
+     * Evaluates a position by blending its middlegame and endgame scores by game phase
+     * @param position the position
+     * @return the evaluation from white's side
+     */
+    public static int evaluate(Position position) {
+        int phase = Math.min(position.getPhase(), TOTAL_PHASE);
+        return (position.getMidgameScore() * phase + position.getEndgameScore() * (TOTAL_PHASE - phase)) /
+                TOTAL_PHASE;
+    }
+}
@@ -1,25 +1,22 @@
 package com.ook.game;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.LocalDate;
 import java.awt.Point;
 
 public class FileHandler {
     // Locations and formats
-    private static final String PATH = "/assets/";
-    private static final String BOARD = PATH + "board.png";
-    private static final String[] whitePieceImages = {"pawn_white.png", "knight_white.png", "bishop_white.png",
-            "rook_white.png", "queen_white.png", "king_white.png"};
-    private static final String[] blackPieceImages = {"pawn_black.png", "knight_black.png", "bishop_black.png",
-            "rook_black.png", "queen_black.png", "king_black.png"};
-    private static final String HIGHLIGHT_INITIAL = 
-        PATH + "highlight_initial.png";
-    private static final String HIGHLIGHT_DESTINATION = 
-        PATH + "highlight_destination.png";
     private static final String PGN_FORMAT = 
         "[Event \"1v1 Chess\"]\n" +
         "[Date \"%d.%d.%d\"]\n" +
@@ -28,29 +25,52 @@ public class FileHandler {
         "[Result \"%6$s\"]\n" +
         "[WhiteTitle \"GM\"]\n" +
         "[BlackTitle \"GM\"]\n\n";
-    private static final String DIRECTORY = "bin/%1$s_vs_%2$s/";
-    private static final String PGN_FILE = DIRECTORY + "%1$s_vs_%2$s.pgn";
-    private static final String SAVE_IMAGE_FILE = DIRECTORY + "board.png";
+    private static final String GAME_ID = "%1$s_vs_%2$s";
+    private static final String DIRECTORY = "bin/%s/";
+    private static final String PGN_FILE = DIRECTORY + "game.pgn";
+    private static final int IMAGE_BUFFER_SIZE = 64 * 1024; // Board PNGs are a little under this
+    private static final long FRAME_CACHE_BYTES = 32 * 1024 * 1024;
+
+    private static volatile boolean archiving; // Whether board images are written to disk
+
+    // Renderers for callers without their own, so each thread keeps its last frames
+    private static final ThreadLocal<BoardRenderer> renderers = new ThreadLocal<>();
+
+    private static final ImageMetrics imageMetrics = new ImageMetrics();
+
+    // Images of boards that every game shows, like the opening moves, are only encoded once
+    private static final FrameCache frameCache = new FrameCache(FRAME_CACHE_BYTES);
 
     /**
-     * Creates a directory for a game between two players
+     * Gets the default ID of a game between two players, which names its directory
      * @param whiteName the white player's name
      * @param blackName the black player's name
+     * @return the game ID
      */
-    public static void makeDirectory(String whiteName, String blackName) {
-        new File(String.format(DIRECTORY, whiteName, blackName)).mkdirs();
+    public static String gameId(String whiteName, String blackName) {
+        return String.format(GAME_ID, whiteName, blackName);
     }
 
     /**
-     * Deletes a directory for a game between two players
-     * @param whiteName the white player's name
-     * @param blackName the black player's name
+     * Creates a directory for a game
+     * @param gameId the game ID
      */
-    public static void deleteDirectory(String whiteName, String blackName) {
-        File dir = new File(String.format(DIRECTORY, whiteName, blackName));
+    public static void makeDirectory(String gameId) {
+        new File(String.format(DIRECTORY, gameId)).mkdirs();
+    }
+
+    /**
+     * Deletes a directory for a game
+     * @param gameId the game ID
+     */
+    public static void deleteDirectory(String gameId) {
+        File dir = new File(String.format(DIRECTORY, gameId));
 
         // Delete the files inside the directory
         String[] entries = dir.list();
+        if (entries == null) { // Already deleted
+            return;
+        }
         for(String filename: entries){
             File file = new File(dir.getPath(), filename);
             file.delete();
@@ -60,156 +80,170 @@ public class FileHandler {
     }
 
     /**
-     * Opens an image and returns its pixel array
-     * @param bufferedImage a BufferedImage object
-     * @return the pixel array
-     * @throws IOException if the image file is not found
+     * Sets whether board images are also written to the game directories
+     * @param archiving whether to save board images
      */
-    private static int[][] open(BufferedImage bufferedImage) 
-            throws IOException {
-        // Get height and width
-        int height = bufferedImage.getHeight();
-        int width = bufferedImage.getWidth();
+    public static void setArchiving(boolean archiving) {
+        FileHandler.archiving = archiving;
+    }
 
-        // Image is stored in column-major order; traverse that way
-        int[][] pixelArray = new int[width][height];
-        for(int i = 0; i < width; i++){
-            for(int j = 0; j < height; j++){
-                // Get each pixel's RGB
-                pixelArray[i][j] = bufferedImage.getRGB(i, j);
-            }
-        }
+    /**
+     * Gets whether board images are written to the game directories
+     * @return true if board images are saved
+     */
+    public static boolean isArchiving() {
+        return archiving;
+    }
 
-        return pixelArray;
+    /**
+     * Renders the current board position as a PNG image in the default format
+     * @param board the chessboard
+     * @param whiteToPlay whether it is white's turn
+     * @param lastMovedInitialCoords the initial coordinates of the last moved 
+     *                               piece
+     * @param lastMoved the last moved piece
+     * @param flipBoard whether to show the board from the side to move
+     * @return the encoded PNG
+     * @throws IOException if an image file is not found
+     */
+    public static byte[] renderImage(Board board, boolean whiteToPlay,
+            Point lastMovedInitialCoords, Piece lastMoved, boolean flipBoard) throws IOException {
+        BoardRenderer renderer = renderers.get();
+        if (renderer == null) {
+            renderer = new BoardRenderer(ImageFormat.DEFAULT);
+            renderers.set(renderer);
+        }
+        return renderImage(renderer, ImageFormat.DEFAULT, board, whiteToPlay, lastMovedInitialCoords,
+                lastMoved, flipBoard);
     }
 
     /**
-     * Draws an item on the board image
-     * @param boardPixelArray the board's pixel array
-     * @param imagePath the path to the image to be drawn
-     * @param drawCoords the coordinates on the board the image will be drawn on
-     * @param transparentRGB the transparent RGB color as an integer
-     * @throws IOException if the image file is not found
+     * Gets the current board position as an image, from the frame cache if any game has shown the same
+     * board in the format
+     * @param renderer the game's renderer, which must be able to render the format
+     * @param format the image format
+     * @param board the chessboard
+     * @param whiteToPlay whether it is white's turn
+     * @param lastMovedInitialCoords the initial coordinates of the last moved 
+     *                               piece
+     * @param lastMoved the last moved piece
+     * @param flipBoard whether to show the board from the side to move
+     * @return the encoded image, which must not be modified
+     * @throws IOException if the image can't be encoded
      */
-    private static void drawItemOnBoard(int[][] boardPixelArray, 
-            String imagePath, Point drawCoords, int transparentRGB) 
+    public static byte[] renderImage(BoardRenderer renderer, ImageFormat format, Board board,
+            boolean whiteToPlay, Point lastMovedInitialCoords, Piece lastMoved, boolean flipBoard)
             throws IOException {
-        // Open item image and get pixel array
-        BufferedImage itemImage = ImageIO.read(
-            FileHandler.class.getResource(imagePath));
-        int[][] itemPixelArray = open(itemImage);
-        int itemSize = itemPixelArray.length;
-        
-        // Calculate start and end coords of item image on board image
-        int startRow = drawCoords.x * itemSize;
-        int startCol = (Board.SIZE - 1 - drawCoords.y) * itemSize;
-        int endRow = startRow + itemSize;
-        int endCol = startCol + itemSize;
-
-        // Draw the item on the board using the pixel arrays
-        for (int i = startRow; i < endRow; i++) {
-            for (int j = startCol; j < endCol; j++) {
-                int patchRow = i - startRow;
-                int patchCol = j - startCol;
-
-                // Draw the part of the image that's not transparent
-                if (itemPixelArray[patchRow][patchCol] != 
-                        transparentRGB) {
-                    boardPixelArray[i][j] = 
-                        itemPixelArray[patchRow][patchCol];
-                }
-            }
+        FrameCache.Key key = renderer.frameKey(format, board, whiteToPlay, lastMovedInitialCoords, lastMoved,
+                flipBoard);
+        byte[] image = frameCache.get(key);
+        if (image == null) {
+            image = encodeImage(renderer, format, board, whiteToPlay, lastMovedInitialCoords, lastMoved,
+                    flipBoard);
+            frameCache.put(key, image);
         }
+        return image;
     }
 
     /**
-     * Saves the current board position as a PNG image
+     * Renders the current board position as an image, redrawing only what changed since the
+     * renderer's last frame, and records its encode time and size
+     * @param renderer the game's renderer, which must be able to render the format
+     * @param format the image format
      * @param board the chessboard
      * @param whiteToPlay whether it is white's turn
      * @param lastMovedInitialCoords the initial coordinates of the last moved 
      *                               piece
      * @param lastMoved the last moved piece
-     * @throws IOException if an image file is not found
+     * @param flipBoard whether to show the board from the side to move
+     * @return the encoded image
+     * @throws IOException if the image can't be encoded
      */
-    public static void saveAsImage(Board board, boolean whiteToPlay, 
-            Point lastMovedInitialCoords, Piece lastMoved, String whiteName,
-            String blackName, boolean flipBoard) throws IOException {
-        Piece[][] theBoard = board.getBoard();
-        if (flipBoard) { // Flip board according to whose turn it is
-            theBoard = whiteToPlay ? board.getBoard() : board.flipBoard();
+    public static byte[] encodeImage(BoardRenderer renderer, ImageFormat format, Board board,
+            boolean whiteToPlay, Point lastMovedInitialCoords, Piece lastMoved, boolean flipBoard)
+            throws IOException {
+        // SVG is written straight from the board, so all of it counts as encoding
+        if (format.getType() == ImageFormat.Type.SVG) {
+            long start = System.nanoTime();
+            byte[] image = renderer.renderSVG(board, whiteToPlay, lastMovedInitialCoords, lastMoved,
+                    flipBoard).getBytes(StandardCharsets.UTF_8);
+            imageMetrics.record(format, System.nanoTime() - start, image.length);
+            return image;
         }
 
-        // Open board image and get pixel array
-        BufferedImage boardImage = ImageIO.read(
-            FileHandler.class.getResource(BOARD));
-        int[][] boardPixelArray = open(boardImage);
-
-        // Transparent RGB color as pixel int
-        int transparentRGB = 0;
-
-        // Loop through all pieces on the board and add draw them
-        for (int i = 0; i < Board.SIZE; i++) {
-            for (int j = 0; j < Board.SIZE; j++) {
-                Point pointOnBoard = new Point(i, j);
-                Piece piece = theBoard[i][j];
-                if (piece == null) { // No piece on square
-                    continue;
-                }
-
-                // Open piece image
-                int team = piece.getTeam();
-                String imagePath;
-                if (team == Piece.WHITE) {
-                    imagePath = whitePieceImages[piece.getType() - 1];
-                } else {
-                    imagePath = blackPieceImages[piece.getType() - 1];
-                }
-
-                // Draw highlights on initial coords and destination of last 
-                // moved piece
-                if (piece == lastMoved) {
-                    drawItemOnBoard(
-                        boardPixelArray, 
-                        HIGHLIGHT_INITIAL,
-                            (whiteToPlay || !flipBoard) ? lastMovedInitialCoords :
-                            new Point(
-                                Board.SIZE - 1 - lastMovedInitialCoords.x, 
-                                Board.SIZE - 1 - lastMovedInitialCoords.y), 
-                        transparentRGB);
-                    drawItemOnBoard(boardPixelArray, HIGHLIGHT_DESTINATION, 
-                        pointOnBoard, transparentRGB);
-                }
+        BufferedImage updatedBoard = renderer.render(board, whiteToPlay, lastMovedInitialCoords, lastMoved,
+                flipBoard);
+        long start = System.nanoTime();
+        byte[] image = encodePNG(updatedBoard, format.getCompressionLevel());
+        imageMetrics.record(format, System.nanoTime() - start, image.length);
+        return image;
+    }
 
-                // Draw piece
-                drawItemOnBoard(boardPixelArray, PATH + imagePath, 
-                    pointOnBoard, transparentRGB);
-            }
+    /**
+     * Encodes an image as PNG in memory
+     * @param image the image, true colour or indexed
+     * @param compressionLevel the deflate level from 0 to 9, or ImageFormat.DEFAULT_COMPRESSION
+     * @return the encoded PNG
+     * @throws IOException if the image can't be encoded
+     */
+    private static byte[] encodePNG(BufferedImage image, int compressionLevel) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (compressionLevel != ImageFormat.DEFAULT_COMPRESSION) {
+            // The PNG writer maps quality 1 to level 0 and quality 0 to level 9
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(1 - compressionLevel / 9f);
         }
 
-        // Put image back together
-        BufferedImage updatedBoard = new BufferedImage(boardPixelArray.length, 
-            boardPixelArray.length, BufferedImage.TYPE_INT_RGB);
-        for (int i = 0; i < updatedBoard.getHeight(); i++) {
-            for (int j = 0; j < updatedBoard.getWidth(); j++) {
-                updatedBoard.setRGB(i, j, boardPixelArray[i][j]);
-            }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(IMAGE_BUFFER_SIZE);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(encoded)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
         }
+        return encoded.toByteArray();
+    }
 
-        // Save to output file
-        File outputFile = new File(String.format(SAVE_IMAGE_FILE, 
-            whiteName, blackName));
-        ImageIO.write(updatedBoard, "png", outputFile);
+    /**
+     * Gets the encode time and size of the board images rendered so far
+     * @return the image metrics by format
+     */
+    public static ImageMetrics getImageMetrics() {
+        return imageMetrics;
+    }
+
+    /**
+     * Gets the cache of encoded board images shared by every game
+     * @return the frame cache
+     */
+    public static FrameCache getFrameCache() {
+        return frameCache;
+    }
+
+    /**
+     * Saves a board image to a game's directory
+     * @param image the encoded image
+     * @param gameId the game ID
+     * @param format the image's format
+     * @throws IOException if the file can't be written
+     */
+    public static void saveImage(byte[] image, String gameId, ImageFormat format) throws IOException {
+        File outputFile = getBoardFile(gameId, format);
+        outputFile.getParentFile().mkdirs();
+        Files.write(outputFile.toPath(), image);
     }
 
     /**
      * Saves the game to a PGN file
      * @param date the date of the game
+     * @param gameId the game ID
      * @param whiteName white's name
      * @param blackName black's name
      * @param result the result of the game
      * @param pgn the PGN string of the game
      */
-    public static void savePGN(LocalDate date, String whiteName, 
+    public static void savePGN(LocalDate date, String gameId, String whiteName,
             String blackName, String result, String pgn) {
         try {
             // Get today's date
@@ -222,11 +256,9 @@ public class FileHandler {
                 whiteName, blackName, result) + pgn;
 
             // Write to PGN file
-            File pgnFile = new File(String.format(
-                PGN_FILE, whiteName, blackName));
+            File pgnFile = new File(String.format(PGN_FILE, gameId));
             pgnFile.getParentFile().mkdirs();
-            FileWriter myWriter = new FileWriter(String.format(
-                PGN_FILE, whiteName, blackName));
+            FileWriter myWriter = new FileWriter(pgnFile);
             myWriter.write(gamePGN);
             myWriter.close();
         } catch (Exception e) {
@@ -236,21 +268,20 @@ public class FileHandler {
 
     /**
      * Gets the file of a game board
-     * @param whiteName the white player's name
-     * @param blackName the black player's name
+     * @param gameId the game ID
+     * @param format the board image's format
      * @return the board file
      */
-    public static File getBoardFile(String whiteName, String blackName) {
-        return new File(String.format(SAVE_IMAGE_FILE, whiteName, blackName));
+    public static File getBoardFile(String gameId, ImageFormat format) {
+        return new File(String.format(DIRECTORY, gameId) + format.getFileName());
     }
 
     /**
      * Gets the PGN file of a game
-     * @param whiteName the white player's name
-     * @param blackName the black player's name
-     * @return the PGN file of the game between the two players
+     * @param gameId the game ID
+     * @return the PGN file of the game
      */
-    public static File getPGNFile(String whiteName, String blackName) {
-        return new File(String.format(PGN_FILE, whiteName, blackName));
+    public static File getPGNFile(String gameId) {
+        return new File(String.format(PGN_FILE, gameId));
     }
 }
@@ -0,0 +1,145 @@
+package com.ook.game;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of encoded board images shared by every game, keyed by what the image shows. The least
+ * recently used images are dropped once the cached images take up more than the memory cap
+ */
+public class FrameCache {
+    private static final int ENTRY_OVERHEAD = 160; // Rough bytes per entry besides the image itself
+
+    private final long maxBytes;
+    private final Map<Key, byte[]> frames = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * What a board image shows: its format and each drawn square's piece and highlights
+     */
+    public static class Key {
+        private final ImageFormat format;
+        private final byte[] squares;
+        private final int hash;
+
+        /**
+         * Creates a key
+         * @param format the image format
+         * @param squares each square's contents as drawn, from the bottom left
+         */
+        public Key(ImageFormat format, byte[] squares) {
+            this.format = format;
+            this.squares = squares;
+            hash = 31 * format.hashCode() + Arrays.hashCode(squares);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && format.equals(other.format) && Arrays.equals(squares, other.squares);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Creates a cache
+     * @param maxBytes the most memory the cached images may take up
+     */
+    public FrameCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets a cached image, counting a hit or a miss
+     * @param key what the image shows
+     * @return the encoded image, which must not be modified, or null if it isn't cached
+     */
+    public synchronized byte[] get(Key key) {
+        byte[] image = frames.get(key);
+        if (image == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return image;
+    }
+
+    /**
+     * Caches an image, dropping the least recently used images to stay under the memory cap
+     * @param key what the image shows
+     * @param image the encoded image, which must not be modified afterwards
+     */
+    public synchronized void put(Key key, byte[] image) {
+        long size = image.length + key.squares.length + ENTRY_OVERHEAD;
+        if (size > maxBytes) {
+            return;
+        }
+        byte[] previous = frames.put(key, image);
+        if (previous != null) {
+            bytes -= previous.length + key.squares.length + ENTRY_OVERHEAD;
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<Key, byte[]>> eldest = frames.entrySet().iterator();
+        while (bytes > maxBytes) {
+            Map.Entry<Key, byte[]> entry = eldest.next();
+            bytes -= entry.getValue().length + entry.getKey().squares.length + ENTRY_OVERHEAD;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Getter for the number of cache hits
+     * @return the hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Getter for the number of cache misses
+     * @return the misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of cached images
+     * @return the image count
+     */
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    /**
+     * Gets the memory the cached images take up
+     * @return the size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Summarizes the cache's size and hit rate
+     * @return the summary
+     */
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("Frame cache: %d images, %.1f of %.1f MB, %d hits, %d misses (%.0f%% hit rate)",
+                frames.size(), bytes / 1048576.0, maxBytes / 1048576.0, hits, misses,
+                lookups == 0 ? 0 : 100.0 * hits / lookups);
+    }
+}
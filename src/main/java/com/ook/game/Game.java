@@ -2,8 +2,8 @@ package com.ook.game;
 
 import java.util.ArrayList;
 import java.awt.Point;
+import java.io.IOException;
 import java.time.LocalDate;
-import java.util.HashMap;
 
 import com.ook.ai.ChessAI;
 import com.ook.io.ChessGameIO;
@@ -17,9 +17,13 @@ public class Game {
     private final LocalDate date;
     private boolean whiteToPlay;
     private final Board board;
+    private String gameId;
     private String whiteName;
     private String blackName;
     private ChessAI ai;
+    private BoardRenderer renderer; // Keeps the last frames so moves only redraw what changed
+    private byte[] boardImage; // The last rendered board image
+    private ImageFormat boardImageFormat;
     private boolean gameEnd;
     private boolean resign;
     private boolean drawOffered;
@@ -36,35 +40,48 @@ public class Game {
      * No-arg constructor with instructions common to other constructors
      */
     private Game() {
+        this(new Board(), true);
+    }
+
+    /**
+     * Creates a game on an existing board without any IO (used for analysis)
+     * @param board the chessboard
+     * @param whiteToPlay whether it is white's turn
+     */
+    public Game(Board board, boolean whiteToPlay) {
         date = LocalDate.now();
-        whiteToPlay = true;
-        board = new Board();
+        this.whiteToPlay = whiteToPlay;
+        this.board = board;
     }
 
     /**
      * Creates a new game with white as the first player
      * @param io a ChessGameIO object that routes input/output
+     * @param gameId the ID the game's files are kept under
      * @param whiteName the white player's name
      * @param blackName the black player's name
      */
-    public Game(ChessGameIO io, String whiteName, String blackName) {
+    public Game(ChessGameIO io, String gameId, String whiteName, String blackName) {
         this();
         this.io = io;
+        this.gameId = gameId;
         this.whiteName = whiteName;
         this.blackName = blackName;
-        setUpGameFiles();
+        showStartingBoard();
     }
 
     /**
      * Creates a new player vs AI game
      * @param io a ChessGameIO object
+     * @param gameId the ID the game's files are kept under
      * @param playerName the player's name
      * @param playerIsPlayingWhite whether the player is playing white
      * @param ai a ChessAI object
      */
-    public Game(ChessGameIO io, String playerName, boolean playerIsPlayingWhite, ChessAI ai) {
+    public Game(ChessGameIO io, String gameId, String playerName, boolean playerIsPlayingWhite, ChessAI ai) {
         this();
         this.io = io;
+        this.gameId = gameId;
         this.ai = ai;
 
         // Set up AI and player names
@@ -78,24 +95,42 @@ public class Game {
         }
         ai.setTeam(!playerIsPlayingWhite);
 
-        setUpGameFiles();
+        showStartingBoard();
     }
 
     /**
-     * Creates a directory for the game and saves the board image to it
+     * Shows the starting board
      */
-    private void setUpGameFiles() {
-        // Create new directory and save board
-        FileHandler.makeDirectory(whiteName, blackName);
+    private void showStartingBoard() {
         try {
-            FileHandler.saveAsImage(board, whiteToPlay, null, null,
-                    whiteName, blackName, (ai == null || ai.isPlayingWhite()));
-            io.update();
+            renderBoard(whiteToPlay, null, null);
+            io.update(boardImage, boardImageFormat);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Renders the board image, saving it to the game directory if images are archived
+     * @param whiteToPlay whether it is white's turn
+     * @param lastMovedInitialCoords the initial coordinates of the last moved piece
+     * @param lastMoved the last moved piece
+     * @throws IOException if the image can't be rendered or saved
+     */
+    private void renderBoard(boolean whiteToPlay, Point lastMovedInitialCoords, Piece lastMoved)
+            throws IOException {
+        ImageFormat format = io == null ? ImageFormat.DEFAULT : io.getImageFormat();
+        if (renderer == null || !renderer.canRender(format)) {
+            renderer = new BoardRenderer(format);
+        }
+        boardImage = FileHandler.renderImage(renderer, format, board, whiteToPlay, lastMovedInitialCoords,
+                lastMoved, (ai == null || ai.isPlayingWhite()));
+        boardImageFormat = format;
+        if (FileHandler.isArchiving()) {
+            FileHandler.saveImage(boardImage, gameId, format);
+        }
+    }
+
     /**
      * Takes the next move, handles game logic
      * @param input the move input
@@ -199,24 +234,17 @@ public class Game {
      * @return whether the castle was successful
      */
     private boolean castle(String[] moveComponents) {
-        if (isInCheck(board)) {
-            return false;
-        }
-
         String castleString = moveComponents[MoveHandler.CASTLE];
 
         Piece king = null;
         Piece rook = null;
         Point kingCoords = null;
-        Point rookCoords = null;
         Point kingDestination = null;
-        Point rookDestination = null;
 
         int castleDirection; // 1 for kingside, -1 for queenside
         int team = whiteToPlay ? Piece.WHITE : Piece.BLACK;
 
         ArrayList<Piece> teamPieces = board.getTeamPieces(team);
-        HashMap<Piece, Integer> moveCounter = board.getMoveCounter();
 
         if (castleString.equals("O-O")) { // Short castle
             // Get king and h-rook (x=7)
@@ -229,7 +257,6 @@ public class Game {
                     }
                 } else if (piece.getType() == Piece.ROOK && piece.getLocation().x == 7) {
                     rook = piece;
-                    rookCoords = piece.getLocation();
                 }
             }
             castleDirection = 1;
@@ -244,7 +271,6 @@ public class Game {
                     }
                 } else if (piece.getType() == Piece.ROOK && piece.getLocation().x == 0) {
                     rook = piece;
-                    rookCoords = piece.getLocation();
                 }
             }
             castleDirection = -1;
@@ -256,30 +282,17 @@ public class Game {
         }
 
         // If king and rook have moved, can't castle
-        if (moveCounter.get(king) > 0 || moveCounter.get(rook) > 0) {
+        if (king.getMoveCount() > 0 || rook.getMoveCount() > 0) {
             return false;
         }
 
         // Calculate destination coords
         kingDestination = new Point(kingCoords.x + 2 * castleDirection, kingCoords.y);
-        rookDestination = new Point(kingDestination.x - castleDirection, kingDestination.y);
-
-        // Check if any of the squares in the castling path are being attacked
-        Point checkSquare = new Point(kingCoords);
-        while (checkSquare.x != kingDestination.x) {
-            if (isBeingAttacked(board, checkSquare)) {
-                return false;
-            }
-            checkSquare.translate(castleDirection, 0);
-        }
 
         // Check if the castle is legal
         Move kingMove = new Move(king, kingCoords, kingDestination, null, null);
-        Move rookMove = new Move(rook, rookCoords, rookDestination, null, null);
-
-        boolean kingLegalMove = legallyMovePiece(board, kingMove, whiteToPlay);
-        if (kingLegalMove) {
-            legallyMovePiece(board, rookMove, whiteToPlay);
+        if (!castle(board, kingMove, whiteToPlay)) {
+            return false;
         }
 
         lastMoved = king;
@@ -346,7 +359,7 @@ public class Game {
 
         if (legalMove) {
             // Turn pawn into promoted piece
-            pawn.setType(promotePieceValue);
+            board.promote(pawn, promotePieceValue);
             lastMoved = pawn;
             lastMovedInitialCoords = pawnCoords;
             return true;
@@ -400,18 +413,22 @@ public class Game {
             }
         }
 
-        // Get only candidates that can move to the destination square
+        // Get only candidates that can legally move to the destination square
+        int[] legalMoves = new int[MoveGenerator.MAX_MOVES];
+        int legalMoveCount = MoveGenerator.generate(board.getPosition(team), legalMoves);
+        int destinationSquare = Position.square(destination.x, destination.y);
         for (int i = 0; i < candidates.size(); i++) {
-            Piece piece = candidates.get(i);
+            Point location = candidates.get(i).getLocation();
+            int fromSquare = Position.square(location.x, location.y);
             boolean isCandidate = false;
-            for (Move move : Piece.getMoves(board, piece)) {
-                if (move.getDestination().equals(destination)) {
+            for (int j = 0; j < legalMoveCount; j++) {
+                if (Move.from(legalMoves[j]) == fromSquare && Move.to(legalMoves[j]) == destinationSquare) {
                     isCandidate = true;
                     break;
                 }
             }
             if (!isCandidate) {
-                candidates.remove(piece);
+                candidates.remove(i);
                 i--;
             }
         }
@@ -504,7 +521,7 @@ public class Game {
         theBoard.move(pieceToMove, destination);
 
         // Make sure moving the piece doesn't cause the king to be in check
-        if (isInCheck(theBoard)) {
+        if (isInCheck(theBoard, whiteToPlay ? Piece.WHITE : Piece.BLACK)) {
             undoMovePiece(theBoard, pieceToMove, initialCoords, move.getCaptured(), move.getCapturedCoords(), opps);
             return false;
         }
@@ -512,6 +529,64 @@ public class Game {
         return true;
     }
 
+    /**
+     * Castles if it is legal. Nothing can stand between the king and the rook, the king can't castle out
+     * of check or through an attacked square, and the rook moves to the square the king passed over
+     * @param theBoard the chessboard
+     * @param kingMove the king's move two squares towards the rook
+     * @param whiteToPlay whether it is white's turn
+     * @return whether the castle was legal
+     */
+    public boolean castle(Board theBoard, Move kingMove, boolean whiteToPlay) {
+        int oppTeam = !whiteToPlay ? Piece.WHITE : Piece.BLACK;
+        Point kingCoords = kingMove.getInitialCoords();
+        Point kingDestination = kingMove.getDestination();
+        int castleDirection = Integer.signum(kingDestination.x - kingCoords.x); // 1 for kingside, -1 for queenside
+        int rookX = (castleDirection == 1) ? Board.SIZE - 1 : 0;
+
+        // The squares between the king and the rook must be empty
+        for (int x = kingCoords.x + castleDirection; x != rookX; x += castleDirection) {
+            if (theBoard.get(x, kingCoords.y) != null) {
+                return false;
+            }
+        }
+
+        // Check if any of the squares in the castling path are being attacked
+        Point checkSquare = new Point(kingCoords);
+        while (checkSquare.x != kingDestination.x) {
+            if (isBeingAttacked(theBoard, checkSquare, oppTeam)) {
+                return false;
+            }
+            checkSquare.translate(castleDirection, 0);
+        }
+
+        // The king can't end in check either
+        if (!legallyMovePiece(theBoard, kingMove, whiteToPlay)) {
+            return false;
+        }
+
+        Point rookCoords = new Point(rookX, kingCoords.y);
+        Point rookDestination = new Point(kingDestination.x - castleDirection, kingDestination.y);
+        legallyMovePiece(theBoard, new Move(theBoard.get(rookCoords), rookCoords, rookDestination, null, null),
+                whiteToPlay);
+        return true;
+    }
+
+    /**
+     * Undoes a castle made with castle
+     * @param theBoard the chessboard
+     * @param kingMove the king's move
+     */
+    public void undoCastle(Board theBoard, Move kingMove) {
+        Point kingCoords = kingMove.getInitialCoords();
+        Point kingDestination = kingMove.getDestination();
+        int castleDirection = Integer.signum(kingDestination.x - kingCoords.x);
+
+        Point rookCoords = new Point((castleDirection == 1) ? Board.SIZE - 1 : 0, kingCoords.y);
+        theBoard.undoMove(theBoard.get(kingDestination.x - castleDirection, kingDestination.y), rookCoords);
+        theBoard.undoMove(kingMove.getPiece(), kingCoords);
+    }
+
     /**
      * Undoes a piece move
      * @param theBoard the chessboard
@@ -575,11 +650,10 @@ public class Game {
                 epCoords = capturedCoords;
             }
 
-            // If epCoords is set, check if the victim was the last moved piece
+            // If epCoords is set, check if the destination is the board's en passant square
             if (epCoords != null) {
                 victim = theBoard.get(epCoords.x, epCoords.y);
-                if (victim.getType() == Piece.PAWN && lastMoved == victim &&
-                        board.getMoveCounter().get(victim).equals(1)) {
+                if (victim != null && victim.getType() == Piece.PAWN && destination.equals(theBoard.getEnPassantSquare())) {
                     // Set en passant captured piece and coordinates
                     move.setCaptured(victim);
                     move.setCapturedCoords(epCoords);
@@ -599,19 +673,17 @@ public class Game {
      * @return whether the current player is in check
      */
     public boolean isInCheck(Board theBoard) {
-        int team = whiteToPlay ? Piece.WHITE : Piece.BLACK;
-        ArrayList<Piece> teamPieces = theBoard.getTeamPieces(team);
-        Point kingCoords = null;
-
-        // Get team king coords
-        for (Piece piece : teamPieces) {
-            if (piece.getType() == Piece.KING) {
-                kingCoords = piece.getLocation();
-                break;
-            }
-        }
+        return isInCheck(theBoard, whiteToPlay ? Piece.WHITE : Piece.BLACK);
+    }
 
-        return isBeingAttacked(theBoard, kingCoords);
+    /**
+     * Returns whether a team is in check
+     * @param theBoard the chessboard
+     * @param team the team whose king to check
+     * @return whether the team is in check
+     */
+    public boolean isInCheck(Board theBoard, int team) {
+        return theBoard.isInCheck(team);
     }
 
     /**
@@ -621,19 +693,18 @@ public class Game {
      * @return whether an enemy piece sees the square
      */
     public boolean isBeingAttacked(Board theBoard, Point square) {
-        int oppTeam = whiteToPlay ? Piece.BLACK : Piece.WHITE;
-        ArrayList<Piece> opps = theBoard.getTeamPieces(oppTeam);
-
-        // Check if opposite team pieces are attacking the king
-        for (Piece piece : opps) {
-            for (Move move : Piece.getMoves(board, piece)) {
-                if (move.getDestination().equals(square)) {
-                    return true;
-                }
-            }
-        }
+        return isBeingAttacked(theBoard, square, whiteToPlay ? Piece.BLACK : Piece.WHITE);
+    }
 
-        return false;
+    /**
+     * Returns whether a square is being attacked by a team
+     * @param theBoard the chessboard
+     * @param square the square in question
+     * @param oppTeam the attacking team
+     * @return whether a piece of the attacking team sees the square
+     */
+    public boolean isBeingAttacked(Board theBoard, Point square, int oppTeam) {
+        return theBoard.isAttacked(square, oppTeam);
     }
 
     /**
@@ -641,38 +712,13 @@ public class Game {
      */
     public void checkGameEnd() {
         if (!(resign || (drawOffered && drawAccepted))) {
-            // Duplicate the board and get its pieces
+            // Check whether the team is in check and if they have no legal moves
             int team = whiteToPlay ? Piece.WHITE : Piece.BLACK;
-            int oppTeam = !whiteToPlay ? Piece.WHITE : Piece.BLACK;
-            ArrayList<Piece> teamPieces = board.getTeamPieces(team);
-            ArrayList<Piece> opps = board.getTeamPieces(oppTeam);
-
-            // Check whether the team is in check and if they have no moves
-            boolean inCheck = isInCheck(board);
-            boolean hasNoMoves = true;
-
-            // Check if there is a possible move
-            for (Piece piece : teamPieces) {
-                Point initialCoords = piece.getLocation();
-                for (Move move : Piece.getMoves(board, piece)) {
-                    boolean legalMove = legallyMovePiece(board, move, whiteToPlay);
-
-                    // Undo move after checking
-                    if (legalMove) {
-                        hasNoMoves = false;
-                        undoMovePiece(board, piece, initialCoords, move.getCaptured(), move.getDestination(), opps);
-                        break;
-                    }
-                }
-
-                // If found a possible move, break
-                if (!hasNoMoves) {
-                    break;
-                }
-            }
+            Position position = board.getPosition(team);
+            boolean inCheck = position.isInCheck(team);
 
             // There is at least one legal move
-            if (!hasNoMoves) {
+            if (MoveGenerator.generate(position, new int[MoveGenerator.MAX_MOVES]) > 0) {
                 gameEnd = false;
                 return;
             }
@@ -707,7 +753,7 @@ public class Game {
 
         // Need to do an extra update for resign/draw or if AI is playing
         if (resign || (drawOffered && drawAccepted) || (ai != null && (whiteToPlay == ai.isPlayingWhite()))) {
-            io.update();
+            io.update(boardImage, boardImageFormat);
         }
 
         // Print winner
@@ -725,11 +771,11 @@ public class Game {
         pgn += result;
 
         // Save PGN
-        FileHandler.savePGN(date, whiteName, blackName, result, pgn);
+        FileHandler.savePGN(date, gameId, whiteName, blackName, result, pgn);
     }
 
     /**
-     * Saves the board image and calls io.update()
+     * Renders the board image and calls io.update()
      */
     public void saveBoardAndMove(String input, Piece lastMoved, Point lastMovedInitialCoords, boolean ioUpdate) {
         // Add move to pgn
@@ -739,12 +785,11 @@ public class Game {
             pgn += String.format("%s ", input);
         }
 
-        // Save board as image
+        // Render board as image
         try {
-            FileHandler.saveAsImage(board, !whiteToPlay, lastMovedInitialCoords, lastMoved, whiteName,
-                    blackName, (ai == null || ai.isPlayingWhite()));
+            renderBoard(!whiteToPlay, lastMovedInitialCoords, lastMoved);
             if (ioUpdate) {
-                io.update();
+                io.update(boardImage, boardImageFormat);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,170 @@
+package com.ook.game;
+
+import java.util.Objects;
+
+/**
+ * How board images are encoded: the file type, the board size and the PNG compression level
+ */
+public class ImageFormat {
+    public static final int DEFAULT_COMPRESSION = -1; // The encoder's own level
+    public static final ImageFormat DEFAULT = new ImageFormat(Type.PNG, Size.LARGE, DEFAULT_COMPRESSION);
+
+    /**
+     * Image file types
+     */
+    public enum Type {
+        PNG("png", "png"), // True colour
+        INDEXED_PNG("indexed", "png"), // Palette indices into the sprite colours
+        SVG("svg", "svg"); // Vector text, no raster encoding
+
+        private final String name;
+        private final String extension;
+
+        Type(String name, String extension) {
+            this.name = name;
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Board size presets, each drawn from its own pre-scaled sprites
+     */
+    public enum Size {
+        SMALL("small", 45),
+        MEDIUM("medium", 60),
+        LARGE("large", 90); // The sprites' own size
+
+        private final String name;
+        private final int tileSize;
+
+        Size(String name, int tileSize) {
+            this.name = name;
+            this.tileSize = tileSize;
+        }
+
+        /**
+         * Gets a square's width and height
+         * @return the square size in pixels
+         */
+        public int getTileSize() {
+            return tileSize;
+        }
+    }
+
+    private final Type type;
+    private final Size size;
+    private final int compressionLevel;
+
+    /**
+     * Creates an image format
+     * @param type the file type
+     * @param size the board size
+     * @param compressionLevel the PNG deflate level from 0 (fastest) to 9 (smallest), or
+     *                         DEFAULT_COMPRESSION
+     */
+    public ImageFormat(Type type, Size size, int compressionLevel) {
+        if (compressionLevel < DEFAULT_COMPRESSION || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be 0-9");
+        }
+        this.type = type;
+        this.size = size;
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Parses a format from words in any order, like "indexed small 9". Missing parts are the defaults'
+     * @param words the type (png, indexed or svg), size (small, medium or large) and compression level
+     * @return the image format
+     * @throws IllegalArgumentException if a word isn't a type, size or level
+     */
+    public static ImageFormat parse(String... words) {
+        Type type = DEFAULT.type;
+        Size size = DEFAULT.size;
+        int compressionLevel = DEFAULT.compressionLevel;
+        outer:
+        for (String word : words) {
+            String lower = word.toLowerCase();
+            for (Type t : Type.values()) {
+                if (t.name.equals(lower)) {
+                    type = t;
+                    continue outer;
+                }
+            }
+            for (Size s : Size.values()) {
+                if (s.name.equals(lower)) {
+                    size = s;
+                    continue outer;
+                }
+            }
+            if (lower.length() == 1 && Character.isDigit(lower.charAt(0))) {
+                compressionLevel = lower.charAt(0) - '0';
+                continue;
+            }
+            throw new IllegalArgumentException("Unknown image format: " + word);
+        }
+        return new ImageFormat(type, size, compressionLevel);
+    }
+
+    /**
+     * Getter for the file type
+     * @return the file type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Getter for the board size
+     * @return the board size
+     */
+    public Size getSize() {
+        return size;
+    }
+
+    /**
+     * Getter for the compression level
+     * @return the PNG deflate level, or DEFAULT_COMPRESSION
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Checks if the format is a raster image that chat clients can show inline
+     * @return true for PNGs
+     */
+    public boolean isRaster() {
+        return type != Type.SVG;
+    }
+
+    /**
+     * Gets the name to upload or save a board image under
+     * @return the file name
+     */
+    public String getFileName() {
+        return "board." + type.extension;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ImageFormat)) {
+            return false;
+        }
+        ImageFormat other = (ImageFormat) o;
+        return type == other.type && size == other.size && compressionLevel == other.compressionLevel;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, size, compressionLevel);
+    }
+
+    @Override
+    public String toString() {
+        String format = type.name + " " + size.name;
+        if (type != Type.SVG && compressionLevel != DEFAULT_COMPRESSION) {
+            format += " " + compressionLevel;
+        }
+        return format;
+    }
+}
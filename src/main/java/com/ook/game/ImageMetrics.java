@@ -0,0 +1,86 @@
+package com.ook.game;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encode time and size of the board images written in each format
+ */
+public class ImageMetrics {
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Running totals for one format
+     */
+    private static class Counters {
+        private final LongAdder images = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+
+    /**
+     * Records an encoded image
+     * @param format the image's format
+     * @param nanos how long encoding took in nanoseconds
+     * @param bytes the encoded size
+     */
+    public void record(ImageFormat format, long nanos, int bytes) {
+        Counters formatCounters = counters.computeIfAbsent(format.toString(), key -> new Counters());
+        formatCounters.images.increment();
+        formatCounters.nanos.add(nanos);
+        formatCounters.bytes.add(bytes);
+    }
+
+    /**
+     * Gets the number of images encoded in a format
+     * @param format the format
+     * @return the image count
+     */
+    public long getImages(ImageFormat format) {
+        Counters formatCounters = counters.get(format.toString());
+        return formatCounters == null ? 0 : formatCounters.images.sum();
+    }
+
+    /**
+     * Gets the average encode time in a format
+     * @param format the format
+     * @return the average time in milliseconds, or 0 if none were encoded
+     */
+    public double getAverageMillis(ImageFormat format) {
+        Counters formatCounters = counters.get(format.toString());
+        long images = formatCounters == null ? 0 : formatCounters.images.sum();
+        return images == 0 ? 0 : formatCounters.nanos.sum() / 1e6 / images;
+    }
+
+    /**
+     * Gets the average encoded size in a format
+     * @param format the format
+     * @return the average size in bytes, or 0 if none were encoded
+     */
+    public long getAverageBytes(ImageFormat format) {
+        Counters formatCounters = counters.get(format.toString());
+        long images = formatCounters == null ? 0 : formatCounters.images.sum();
+        return images == 0 ? 0 : formatCounters.bytes.sum() / images;
+    }
+
+    /**
+     * Summarizes every format used, one line each
+     * @return the summary
+     */
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Counters> entry : new TreeMap<>(counters).entrySet()) {
+            Counters formatCounters = entry.getValue();
+            long images = formatCounters.images.sum();
+            if (images == 0) {
+                continue;
+            }
+            summary.append(String.format("%s: %d images, %.1f ms, %.1f KB average%n", entry.getKey(), images,
+                    formatCounters.nanos.sum() / 1e6 / images, formatCounters.bytes.sum() / 1024.0 / images));
+        }
+        return summary.toString();
+    }
+}
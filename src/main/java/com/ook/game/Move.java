@@ -4,8 +4,21 @@ import java.awt.*;
 
 /**
  * Class that represents a chess move
+ *
+ * Search code uses moves packed into an int instead (see pack), which this
+ * class converts to and from for the game and IO layer.
  */
 public class Move {
+    // Packed move flags
+    public static final int CASTLE = 1;
+    public static final int EN_PASSANT = 2;
+    public static final int DOUBLE_PUSH = 4;
+
+    // Packed move layout: from (bits 0-5), to (6-11), promotion (12-14), piece (15-17), captured (18-20),
+    // flags (21-23). The low 15 bits identify the move within its position.
+    public static final int NONE = 0;
+    public static final int IDENTITY_MASK = 0x7FFF;
+
     // Instance variables
     private final Piece piece;
     private final Point initialCoords;
@@ -29,6 +42,113 @@ public class Move {
         this.capturedCoords = capturedCoords;
     }
 
+    /**
+     * Packs a move into an int
+     * @param from the square the piece moves from
+     * @param to the square the piece moves to
+     * @param promotion the type to promote to (0 if not a promotion)
+     * @param piece the type of the moving piece
+     * @param captured the type of the captured piece (0 if not a capture)
+     * @param flags CASTLE, EN_PASSANT or DOUBLE_PUSH (0 if none)
+     * @return the packed move
+     */
+    public static int pack(int from, int to, int promotion, int piece, int captured, int flags) {
+        return from | (to << 6) | (promotion << 12) | (piece << 15) | (captured << 18) | (flags << 21);
+    }
+
+    /**
+     * Gets the square a packed move starts from
+     * @param move the packed move
+     * @return the square index
+     */
+    public static int from(int move) {
+        return move & 0x3F;
+    }
+
+    /**
+     * Gets the square a packed move ends on
+     * @param move the packed move
+     * @return the square index
+     */
+    public static int to(int move) {
+        return (move >>> 6) & 0x3F;
+    }
+
+    /**
+     * Gets the type a packed move promotes to
+     * @param move the packed move
+     * @return the promotion type (0 if not a promotion)
+     */
+    public static int promotion(int move) {
+        return (move >>> 12) & 0x7;
+    }
+
+    /**
+     * Gets the type of the piece a packed move moves
+     * @param move the packed move
+     * @return the piece type
+     */
+    public static int piece(int move) {
+        return (move >>> 15) & 0x7;
+    }
+
+    /**
+     * Gets the type of the piece a packed move captures
+     * @param move the packed move
+     * @return the captured type (0 if not a capture)
+     */
+    public static int captured(int move) {
+        return (move >>> 18) & 0x7;
+    }
+
+    /**
+     * Gets the flags of a packed move
+     * @param move the packed move
+     * @return the flags
+     */
+    public static int flags(int move) {
+        return (move >>> 21) & 0x7;
+    }
+
+    /**
+     * Converts a packed move to a move of the pieces on a board
+     * @param board the chessboard the move is played on
+     * @param move the packed move
+     * @return the Move object
+     */
+    public static Move fromPacked(Board board, int move) {
+        int from = from(move);
+        int to = to(move);
+        Point initialCoords = new Point(from % Board.SIZE, from / Board.SIZE);
+        Point destination = new Point(to % Board.SIZE, to / Board.SIZE);
+        Point capturedCoords = null;
+
+        if ((flags(move) & EN_PASSANT) != 0) {
+            capturedCoords = new Point(destination.x, initialCoords.y);
+        } else if (captured(move) != 0) {
+            capturedCoords = destination;
+        }
+
+        return new Move(board.get(initialCoords), initialCoords, destination, board.get(capturedCoords),
+                capturedCoords);
+    }
+
+    /**
+     * Converts a packed move to coordinate notation (ex. "e2e4", "e7e8q")
+     * @param move the packed move
+     * @return the move in coordinate notation
+     */
+    public static String toCoordinateNotation(int move) {
+        int from = from(move);
+        int to = to(move);
+        String notation = "" + (char) ('a' + from % Board.SIZE) + (from / Board.SIZE + 1) +
+                (char) ('a' + to % Board.SIZE) + (to / Board.SIZE + 1);
+        if (promotion(move) != 0) {
+            notation += "pnbrqk".charAt(promotion(move) - 1);
+        }
+        return notation;
+    }
+
     /**
      * Getter for piece
      * @return the piece of the move
@@ -0,0 +1,280 @@
+package com.ook.game;
+
+/**
+ * Bitboard move generator that writes legal packed moves into a caller's buffer
+ *
+ * Checkers and pinned pieces are found once per position, so every generated
+ * move is legal without making it. Nothing is allocated, so search code can
+ * generate into preallocated buffers, one per ply.
+ */
+public class MoveGenerator {
+    // No position has more moves than this
+    public static final int MAX_MOVES = 256;
+
+    private static final int[] PROMOTIONS = {Piece.QUEEN, Piece.KNIGHT, Piece.ROOK, Piece.BISHOP};
+
+    /**
+     * Generates all legal moves for the side to move
+     * @param position the position
+     * @param moves the buffer to write packed moves into
+     * @return the number of moves generated
+     */
+    public static int generate(Position position, int[] moves) {
+        int team = position.getSideToMove();
+        int opponent = 1 - team;
+        int king = position.getKingSquare(team);
+        long own = position.getOccupancy(team);
+        long occupied = position.getOccupied();
+
+        // The king can't step to an attacked square, or back along the line of a slider checking it
+        int count = 0;
+        long kingTargets = Attacks.king(king) & ~own;
+        long withoutKing = occupied & ~(1L << king);
+        while (kingTargets != 0) {
+            int to = Long.numberOfTrailingZeros(kingTargets);
+            kingTargets &= kingTargets - 1;
+            if (position.getAttackers(to, opponent, withoutKing) == 0) {
+                moves[count++] = Move.pack(king, to, 0, Piece.KING, position.getType(to), 0);
+            }
+        }
+
+        // In double check only the king can move
+        long checkers = position.getAttackers(king, opponent);
+        if (Long.bitCount(checkers) > 1) {
+            return count;
+        }
+
+        // Other pieces must capture the checker or block its line
+        long checkMask = -1L;
+        if (checkers != 0) {
+            int checker = Long.numberOfTrailingZeros(checkers);
+            checkMask = checkers | Attacks.between(king, checker);
+        }
+        long pinned = pinned(position, team, king);
+
+        count = pawnMoves(position, moves, count, team, king, checkMask, pinned);
+        for (int type = Piece.KNIGHT; type <= Piece.QUEEN; type++) {
+            long pieces = position.getPieces(team, type);
+            while (pieces != 0) {
+                int from = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                long targets = attacks(type, from, occupied) & ~own & checkMask;
+                if ((pinned & (1L << from)) != 0) {
+                    targets &= Attacks.line(king, from);
+                }
+                count = addMoves(position, moves, count, from, type, targets);
+            }
+        }
+        if (checkers == 0) {
+            count = castlingMoves(position, moves, count, team, king);
+        }
+        return count;
+    }
+
+    /**
+     * Gets a team's pieces that are pinned to their king
+     * @param position the position
+     * @param team the team
+     * @param king the team's king square
+     * @return the pinned pieces
+     */
+    private static long pinned(Position position, int team, int king) {
+        int opponent = 1 - team;
+        long occupied = position.getOccupied();
+        long queens = position.getPieces(opponent, Piece.QUEEN);
+
+        // Enemy sliders that would see the king on an empty board
+        long snipers = (Attacks.rook(king, 0) & (position.getPieces(opponent, Piece.ROOK) | queens)) |
+                (Attacks.bishop(king, 0) & (position.getPieces(opponent, Piece.BISHOP) | queens));
+
+        long pinned = 0;
+        while (snipers != 0) {
+            int sniper = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+
+            // A single piece of ours in between is pinned
+            long blockers = Attacks.between(king, sniper) & occupied;
+            if (Long.bitCount(blockers) == 1) {
+                pinned |= blockers & position.getOccupancy(team);
+            }
+        }
+        return pinned;
+    }
+
+    /**
+     * Gets the squares a non-pawn piece attacks
+     * @param type the piece type
+     * @param square the piece's square
+     * @param occupied the occupied squares
+     * @return the attacked squares
+     */
+    private static long attacks(int type, int square, long occupied) {
+        return switch (type) {
+            case Piece.KNIGHT -> Attacks.knight(square);
+            case Piece.BISHOP -> Attacks.bishop(square, occupied);
+            case Piece.ROOK -> Attacks.rook(square, occupied);
+            case Piece.QUEEN -> Attacks.queen(square, occupied);
+            case Piece.KING -> Attacks.king(square);
+            default -> 0;
+        };
+    }
+
+    /**
+     * Adds a move from a square to each target square
+     * @param position the position
+     * @param moves the move buffer
+     * @param count the number of moves in the buffer
+     * @param from the square the piece moves from
+     * @param type the piece type
+     * @param targets the squares the piece can move to
+     * @return the new number of moves in the buffer
+     */
+    private static int addMoves(Position position, int[] moves, int count, int from, int type, long targets) {
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            moves[count++] = Move.pack(from, to, 0, type, position.getType(to), 0);
+        }
+        return count;
+    }
+
+    /**
+     * Adds legal pawn pushes, captures, en passant and promotions
+     * @param position the position
+     * @param moves the move buffer
+     * @param count the number of moves in the buffer
+     * @param team the side to move
+     * @param king the side to move's king square
+     * @param checkMask the squares that capture or block a check (all squares if not in check)
+     * @param pinned the side to move's pinned pieces
+     * @return the new number of moves in the buffer
+     */
+    private static int pawnMoves(Position position, int[] moves, int count, int team, int king, long checkMask,
+                                 long pinned) {
+        int forward = (team == Piece.WHITE) ? Board.SIZE : -Board.SIZE;
+        int startRank = (team == Piece.WHITE) ? 1 : Board.SIZE - 2;
+        int lastRank = (team == Piece.WHITE) ? Board.SIZE - 1 : 0;
+        long occupied = position.getOccupied();
+        long enemies = position.getOccupancy(1 - team);
+        int enPassant = position.getEnPassantSquare();
+
+        long pawns = position.getPieces(team, Piece.PAWN);
+        while (pawns != 0) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawns &= pawns - 1;
+            long allowed = checkMask;
+            if ((pinned & (1L << from)) != 0) {
+                allowed &= Attacks.line(king, from);
+            }
+
+            // Pushes
+            int to = from + forward;
+            if ((occupied & (1L << to)) == 0) {
+                if ((allowed & (1L << to)) != 0) {
+                    count = addPawnMove(moves, count, from, to, 0, to / Board.SIZE == lastRank);
+                }
+                int doubleTo = to + forward;
+                if (from / Board.SIZE == startRank && (occupied & (1L << doubleTo)) == 0 &&
+                        (allowed & (1L << doubleTo)) != 0) {
+                    moves[count++] = Move.pack(from, doubleTo, 0, Piece.PAWN, 0, Move.DOUBLE_PUSH);
+                }
+            }
+
+            // Captures
+            long attacks = Attacks.pawn(team, from);
+            long captures = attacks & enemies & allowed;
+            while (captures != 0) {
+                int target = Long.numberOfTrailingZeros(captures);
+                captures &= captures - 1;
+                count = addPawnMove(moves, count, from, target, position.getType(target),
+                        target / Board.SIZE == lastRank);
+            }
+            if (enPassant != Position.NO_SQUARE && (attacks & (1L << enPassant)) != 0 &&
+                    isLegalEnPassant(position, team, king, from, enPassant, enPassant - forward, checkMask)) {
+                moves[count++] = Move.pack(from, enPassant, 0, Piece.PAWN, Piece.PAWN, Move.EN_PASSANT);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks an en passant capture by removing both pawns from the board, since it can
+     * uncover a check along the rank that a pin test on one piece misses
+     * @param position the position
+     * @param team the side to move
+     * @param king the side to move's king square
+     * @param from the capturing pawn's square
+     * @param to the en passant square
+     * @param captured the captured pawn's square
+     * @param checkMask the squares that capture or block a check (all squares if not in check)
+     * @return whether the capture is legal
+     */
+    private static boolean isLegalEnPassant(Position position, int team, int king, int from, int to, int captured,
+                                            long checkMask) {
+        // Capturing the checking pawn or blocking a check both resolve it
+        if ((checkMask & ((1L << to) | (1L << captured))) == 0) {
+            return false;
+        }
+
+        int opponent = 1 - team;
+        long occupied = (position.getOccupied() ^ (1L << from) ^ (1L << captured)) | (1L << to);
+        long queens = position.getPieces(opponent, Piece.QUEEN);
+        return (Attacks.rook(king, occupied) & (position.getPieces(opponent, Piece.ROOK) | queens)) == 0 &&
+                (Attacks.bishop(king, occupied) & (position.getPieces(opponent, Piece.BISHOP) | queens)) == 0;
+    }
+
+    /**
+     * Adds a pawn move, expanding it to all four promotions on the last rank
+     * @param moves the move buffer
+     * @param count the number of moves in the buffer
+     * @param from the square the pawn moves from
+     * @param to the square the pawn moves to
+     * @param captured the captured type (0 if not a capture)
+     * @param promotes whether the pawn reaches the last rank
+     * @return the new number of moves in the buffer
+     */
+    private static int addPawnMove(int[] moves, int count, int from, int to, int captured, boolean promotes) {
+        if (!promotes) {
+            moves[count++] = Move.pack(from, to, 0, Piece.PAWN, captured, 0);
+            return count;
+        }
+        for (int promotion : PROMOTIONS) {
+            moves[count++] = Move.pack(from, to, promotion, Piece.PAWN, captured, 0);
+        }
+        return count;
+    }
+
+    /**
+     * Adds castling moves that don't pass through or end on an attacked square (the king
+     * must not be in check)
+     * @param position the position
+     * @param moves the move buffer
+     * @param count the number of moves in the buffer
+     * @param team the side to move
+     * @param king the side to move's king square
+     * @return the new number of moves in the buffer
+     */
+    private static int castlingMoves(Position position, int[] moves, int count, int team, int king) {
+        int rights = position.getCastlingRights();
+        int kingside = (team == Piece.WHITE) ? Position.WHITE_KINGSIDE : Position.BLACK_KINGSIDE;
+        int queenside = (team == Piece.WHITE) ? Position.WHITE_QUEENSIDE : Position.BLACK_QUEENSIDE;
+        if ((rights & (kingside | queenside)) == 0) {
+            return count;
+        }
+
+        int opponent = 1 - team;
+        long occupied = position.getOccupied();
+
+        // f and g files must be empty and not attacked
+        if ((rights & kingside) != 0 && (occupied & (3L << (king + 1))) == 0 &&
+                !position.isSquareAttacked(king + 1, opponent) && !position.isSquareAttacked(king + 2, opponent)) {
+            moves[count++] = Move.pack(king, king + 2, 0, Piece.KING, 0, Move.CASTLE);
+        }
+        // b, c and d files must be empty and c and d must not be attacked
+        if ((rights & queenside) != 0 && (occupied & (7L << (king - 3))) == 0 &&
+                !position.isSquareAttacked(king - 1, opponent) && !position.isSquareAttacked(king - 2, opponent)) {
+            moves[count++] = Move.pack(king, king - 2, 0, Piece.KING, 0, Move.CASTLE);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,388 @@
+package com.ook.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Perft driver that counts the leaf nodes of the move generation tree
+ *
+ * Moves are either generated with Piece.getMoves and made with
+ * Game.legallyMovePiece (the path the game uses) or, in bitboard mode,
+ * generated with MoveGenerator and made on a Position (the path the AI
+ * uses), so node counts can be checked against known values for standard
+ * test positions.
+ */
+public class Perft {
+    // Standard test positions and their known node counts at depths 1, 2, 3...
+    private static final String[] SUITE_NAMES = {"Start position", "Kiwipete", "Position 3", "Position 4",
+            "Position 5"};
+    private static final String[] SUITE_FENS = {
+            Position.START_FEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8"
+    };
+    private static final long[][] SUITE_COUNTS = {
+            {20, 400, 8902, 197281, 4865609},
+            {48, 2039, 97862, 4085603},
+            {14, 191, 2812, 43238, 674624},
+            {6, 264, 9467, 422333},
+            {44, 1486, 62379, 2103487}
+    };
+    private static final int[] PROMOTIONS = {Piece.QUEEN, Piece.ROOK, Piece.BISHOP, Piece.KNIGHT};
+
+    private final Position position;
+    private final boolean bitboard;
+
+    /**
+     * Perft constructor
+     * @param fen the FEN string of the position to count from
+     * @param bitboard whether to count with the bitboard move generator
+     */
+    public Perft(String fen, boolean bitboard) {
+        position = new Position(fen);
+        this.bitboard = bitboard;
+    }
+
+    /**
+     * Counts the leaf nodes to a given depth
+     * @param depth the depth to search
+     * @param threads the number of threads to split the root moves between
+     * @return the number of leaf nodes
+     * @throws Exception if a worker thread fails
+     */
+    public long count(int depth, int threads) throws Exception {
+        long nodes = 0;
+        for (long rootCount : divide(depth, threads)) {
+            nodes += rootCount;
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes below each root move
+     * @param depth the depth to search
+     * @param threads the number of threads to split the root moves between
+     * @return the node count for each root move, in generation order
+     * @throws Exception if a worker thread fails
+     */
+    public long[] divide(int depth, int threads) throws Exception {
+        if (depth <= 0) {
+            return new long[] {1};
+        }
+        int rootMoves = rootMoveNames().size();
+        long[] counts = new long[rootMoves];
+
+        // Every root move is searched on its own copy of the board
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < rootMoves; i++) {
+                int moveIndex = i;
+                futures.add(executor.submit(() -> countRootMove(moveIndex, depth)));
+            }
+            for (int i = 0; i < rootMoves; i++) {
+                counts[i] = futures.get(i).get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Gets the names of the root moves in generation order (ex. "e2e4", "e7e8q")
+     * @return the list of root move names
+     */
+    public List<String> rootMoveNames() {
+        List<String> names = new ArrayList<>();
+        if (bitboard) {
+            for (int move : legalMoves(new Position(position))) {
+                names.add(Move.toCoordinateNotation(move));
+            }
+            return names;
+        }
+
+        Game game = newGame();
+        for (PerftMove move : legalMoves(game)) {
+            String name = MoveHandler.toSquare(move.move.getInitialCoords()) +
+                    MoveHandler.toSquare(move.move.getDestination());
+            if (move.promotion != 0) {
+                name += "pnbrqk".charAt(move.promotion - 1);
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Counts the leaf nodes below one root move on a fresh copy of the position
+     * @param moveIndex the index of the root move
+     * @param depth the depth to search, including the root move
+     * @return the number of leaf nodes
+     */
+    private long countRootMove(int moveIndex, int depth) {
+        if (bitboard) {
+            Position copy = new Position(position);
+            copy.makeMove(legalMoves(copy)[moveIndex]);
+            return perft(copy, depth - 1, new int[depth][MoveGenerator.MAX_MOVES]);
+        }
+
+        Game game = newGame();
+        PerftMove move = legalMoves(game).get(moveIndex);
+        make(game, move);
+        long nodes = perft(game, depth - 1);
+        unmake(game, move);
+        return nodes;
+    }
+
+    /**
+     * Creates a game on a new board set up from the position
+     * @return the game
+     */
+    private Game newGame() {
+        return new Game(new Board(position), position.getSideToMove() == Piece.WHITE);
+    }
+
+    /**
+     * Recursively counts leaf nodes
+     * @param game the game to make moves in
+     * @param depth the remaining depth
+     * @return the number of leaf nodes
+     */
+    private long perft(Game game, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+
+        ArrayList<PerftMove> moves = legalMoves(game);
+        if (depth == 1) {
+            return moves.size();
+        }
+
+        long nodes = 0;
+        for (PerftMove move : moves) {
+            make(game, move);
+            nodes += perft(game, depth - 1);
+            unmake(game, move);
+        }
+        return nodes;
+    }
+
+    /**
+     * Recursively counts leaf nodes on a position
+     * @param position the position to make moves on
+     * @param depth the remaining depth
+     * @param buffers one move buffer per remaining depth
+     * @return the number of leaf nodes
+     */
+    private static long perft(Position position, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+
+        int[] moves = buffers[depth - 1];
+        int count = MoveGenerator.generate(position, moves);
+        if (depth == 1) { // Every generated move is legal, so the leaves don't need to be made
+            return count;
+        }
+
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            nodes += perft(position, depth - 1, buffers);
+            position.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Generates the legal packed moves of a position
+     * @param position the position
+     * @return the legal moves, in generation order
+     */
+    private static int[] legalMoves(Position position) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        return Arrays.copyOf(moves, MoveGenerator.generate(position, moves));
+    }
+
+    /**
+     * Generates all legal moves for the team to play, with one entry per promotion piece
+     * @param game the game
+     * @return the list of legal moves
+     */
+    private ArrayList<PerftMove> legalMoves(Game game) {
+        ArrayList<PerftMove> legalMoves = new ArrayList<>();
+        Board board = game.getBoard();
+        int team = game.whiteToPlay() ? Piece.WHITE : Piece.BLACK;
+
+        // Copy the team's pieces since making moves changes the piece lists
+        for (Piece piece : new ArrayList<>(board.getTeamPieces(team))) {
+            for (Move move : Piece.getMoves(board, piece)) {
+                PerftMove perftMove = new PerftMove(move, 0);
+                if (!make(game, perftMove)) {
+                    continue;
+                }
+                unmake(game, perftMove);
+
+                // Pawns reaching the last rank promote to any of four pieces
+                int lastRank = (team == Piece.WHITE) ? Board.SIZE - 1 : 0;
+                if (piece.getType() == Piece.PAWN && move.getDestination().y == lastRank) {
+                    for (int promotion : PROMOTIONS) {
+                        legalMoves.add(new PerftMove(move, promotion));
+                    }
+                } else {
+                    legalMoves.add(perftMove);
+                }
+            }
+        }
+
+        return legalMoves;
+    }
+
+    /**
+     * Makes a move and passes the turn if it is legal
+     * @param game the game
+     * @param perftMove the move
+     * @return whether the move was legal and made
+     */
+    private boolean make(Game game, PerftMove perftMove) {
+        Board board = game.getBoard();
+        Move move = perftMove.move;
+        Piece piece = move.getPiece();
+
+        // Castle the way the game does
+        boolean legal = isCastle(move) ? game.castle(board, move, game.whiteToPlay()) :
+                game.legallyMovePiece(board, move, game.whiteToPlay());
+        if (!legal) {
+            return false;
+        }
+        if (perftMove.promotion != 0) {
+            board.promote(piece, perftMove.promotion);
+        }
+
+        game.toggleTurn();
+        return true;
+    }
+
+    /**
+     * Unmakes a move made with make
+     * @param game the game
+     * @param perftMove the move
+     */
+    private void unmake(Game game, PerftMove perftMove) {
+        Board board = game.getBoard();
+        Move move = perftMove.move;
+        Piece piece = move.getPiece();
+
+        game.toggleTurn();
+        if (perftMove.promotion != 0) {
+            board.promote(piece, Piece.PAWN);
+        }
+        if (isCastle(move)) {
+            game.undoCastle(board, move);
+            return;
+        }
+
+        int oppTeam = (piece.getTeam() == Piece.WHITE) ? Piece.BLACK : Piece.WHITE;
+        game.undoMovePiece(board, piece, move.getInitialCoords(), move.getCaptured(), move.getCapturedCoords(),
+                board.getTeamPieces(oppTeam));
+    }
+
+    /**
+     * Checks whether a move is a castle
+     * @param move the move
+     * @return whether the king moves two squares
+     */
+    private static boolean isCastle(Move move) {
+        return move.getPiece().getType() == Piece.KING &&
+                Math.abs(move.getDestination().x - move.getInitialCoords().x) == 2;
+    }
+
+    /**
+     * Runs perft from the command line
+     * @param depth the depth to search
+     * @param fen the FEN string of the position ("suite" to run all standard test positions)
+     * @param divide whether to print the node count of each root move
+     * @param threads the number of threads to split the root moves between
+     * @param bitboard whether to count with the bitboard move generator
+     * @throws Exception if a worker thread fails
+     */
+    public static void run(int depth, String fen, boolean divide, int threads, boolean bitboard)
+            throws Exception {
+        if (fen.equals("suite")) {
+            boolean allPassed = true;
+            for (int i = 0; i < SUITE_FENS.length; i++) {
+                // Positions are only counted as deep as their known counts go
+                int suiteDepth = Math.min(depth, SUITE_COUNTS[i].length);
+                if (suiteDepth < depth) {
+                    System.out.printf("%s only has known counts to depth %d, so it is counted to depth %d%n",
+                            SUITE_NAMES[i], suiteDepth, suiteDepth);
+                }
+                long expected = SUITE_COUNTS[i][suiteDepth - 1];
+                long nodes = report(SUITE_NAMES[i], new Perft(SUITE_FENS[i], bitboard), suiteDepth, false, threads);
+                boolean passed = nodes == expected;
+                allPassed &= passed;
+                System.out.printf("  %s (expected %d)%n", passed ? "OK" : "FAILED", expected);
+            }
+            System.out.println(allPassed ? "All positions passed." : "Some positions FAILED.");
+            return;
+        }
+
+        report(fen, new Perft(fen, bitboard), depth, divide, threads);
+    }
+
+    /**
+     * Counts and prints the nodes of a position along with nodes/sec
+     * @param name the name of the position
+     * @param perft the perft driver
+     * @param depth the depth to search
+     * @param divide whether to print the node count of each root move
+     * @param threads the number of threads to split the root moves between
+     * @return the number of leaf nodes
+     * @throws Exception if a worker thread fails
+     */
+    private static long report(String name, Perft perft, int depth, boolean divide, int threads) throws Exception {
+        long start = System.nanoTime();
+        long[] counts = perft.divide(depth, threads);
+        long elapsed = System.nanoTime() - start;
+
+        long nodes = 0;
+        List<String> names = perft.rootMoveNames();
+        for (int i = 0; i < counts.length; i++) {
+            nodes += counts[i];
+            if (divide && depth > 0) {
+                System.out.printf("%s: %d%n", names.get(i), counts[i]);
+            }
+        }
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("%s%n  depth %d: %d nodes in %.3f s (%.0f nodes/sec, %d threads)%n", name, depth, nodes,
+                seconds, nodes / Math.max(seconds, 1e-9), threads);
+        return nodes;
+    }
+
+    /**
+     * A generated move along with the piece it promotes to
+     */
+    private static class PerftMove {
+        private final Move move;
+        private final int promotion;
+
+        /**
+         * PerftMove constructor
+         * @param move the move
+         * @param promotion the type to promote to (0 if not a promotion)
+         */
+        private PerftMove(Move move, int promotion) {
+            this.move = move;
+            this.promotion = promotion;
+        }
+    }
+}
@@ -34,6 +34,7 @@ public class Piece {
     private int type;
     private final int team;
     private Point location;
+    private int moveCount;
 
     /**
      * Returns a list of moves for the given piece
@@ -146,20 +147,10 @@ public class Piece {
         }
 
         // En passant
-        if ((isWhite && y == 4) || (!isWhite && y == 3)) { // Check if on correct rank
-            Point leftEP = new Point(x - 1, y);
-            Piece leftPiece = board.get(leftEP);
-            Point rightEP = new Point(x + 1, y);
-            Piece rightPiece = board.get(rightEP);
-
-            if (leftPiece != null && leftPiece.getTeam() != team && leftPiece.getType() == PAWN &&
-                    board.getMoveCounter().get(leftPiece) == 1) {
-                pawnMoves.add(new Move(pawn, initialCoords, leftDiagonal, leftPiece, leftEP));
-            }
-            if (rightPiece != null && rightPiece.getTeam() != team && rightPiece.getType() == PAWN &&
-                    board.getMoveCounter().get(rightPiece) == 1) {
-                pawnMoves.add(new Move(pawn, initialCoords, rightDiagonal, rightPiece, rightEP));
-            }
+        Point enPassant = board.getEnPassantSquare();
+        if (enPassant != null && enPassant.y == y + moveDir && Math.abs(enPassant.x - x) == 1) {
+            Point victimCoords = new Point(enPassant.x, y);
+            pawnMoves.add(new Move(pawn, initialCoords, enPassant, board.get(victimCoords), victimCoords));
         }
 
         return pawnMoves;
@@ -357,7 +348,7 @@ public class Piece {
         }
 
         // Castle
-        if (x == kingStartX && board.getMoveCounter().get(king) == 0) {
+        if (x == kingStartX && king.getMoveCount() == 0) {
             if ((team == WHITE && y == whiteKingStartY) || (team == BLACK && y == blackKingStartY)) {
                 // Short castle
                 int checkX = x + 1;
@@ -372,7 +363,7 @@ public class Piece {
                 if (checkX == 7) {
                     checkRook = board.get(checkX, y);
                     if (checkRook != null && checkRook.getTeam() == team && checkRook.getType() == ROOK &&
-                            board.getMoveCounter().get(checkRook) == 0) {
+                            checkRook.getMoveCount() == 0) {
                         possibleMoves.add(new Move(king, initialCoords, new Point(x + 2, y), null, null));
                     }
                 }
@@ -389,7 +380,7 @@ public class Piece {
                 if (checkX == 0) {
                     checkRook = board.get(checkX, y);
                     if (checkRook != null && checkRook.getTeam() == team && checkRook.getType() == ROOK &&
-                            board.getMoveCounter().get(checkRook) == 0) {
+                            checkRook.getMoveCount() == 0) {
                         possibleMoves.add(new Move(king, initialCoords, new Point(x - 2, y), null, null));
                     }
                 }
@@ -450,4 +441,20 @@ public class Piece {
     public void setLocation(Point location) {
         this.location = location;
     }
+
+    /**
+     * Gets the number of times the piece has moved
+     * @return the move count
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Sets the number of times the piece has moved
+     * @param moveCount the new move count
+     */
+    public void setMoveCount(int moveCount) {
+        this.moveCount = moveCount;
+    }
 }
@@ -0,0 +1,697 @@
+package com.ook.game;
+
+import java.util.SplittableRandom;
+
+/**
+ * Bitboard representation of a chess position
+ *
+ * Squares are numbered x + 8 * y, so a1 = 0, h1 = 7 and h8 = 63, matching the
+ * (x, y) coordinates used by Board. Each of the 12 piece sets is a long with
+ * one bit per square.
+ */
+public class Position {
+    // Special squares
+    public static final int NO_SQUARE = -1;
+    public static final int EMPTY = -1;
+
+    // Castling rights
+    public static final int WHITE_KINGSIDE = 1;
+    public static final int WHITE_QUEENSIDE = 2;
+    public static final int BLACK_KINGSIDE = 4;
+    public static final int BLACK_QUEENSIDE = 8;
+    public static final int ALL_CASTLING = 15;
+
+    // Maximum number of moves that can be made (and unmade) on one position
+    public static final int MAX_PLY = 256;
+
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // Castling rights that survive a move from or to each square
+    private static final int[] castlingMask = new int[64];
+
+    // Zobrist keys (black to move, each castling right and each en passant file)
+    private static final long[][] pieceKeys = new long[12][64];
+    private static final long[] castlingKeys = new long[ALL_CASTLING + 1];
+    private static final long[] enPassantKeys = new long[Board.SIZE];
+    private static final long sideKey;
+
+    static {
+        // Fixed seed so keys are the same on every run
+        SplittableRandom random = new SplittableRandom(0x0C4E55L);
+        for (long[] keys : pieceKeys) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextLong();
+            }
+        }
+        long[] rightKeys = {random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong()};
+        for (int rights = 0; rights <= ALL_CASTLING; rights++) {
+            for (int bit = 0; bit < rightKeys.length; bit++) {
+                if ((rights & (1 << bit)) != 0) {
+                    castlingKeys[rights] ^= rightKeys[bit];
+                }
+            }
+        }
+        for (int i = 0; i < enPassantKeys.length; i++) {
+            enPassantKeys[i] = random.nextLong();
+        }
+        sideKey = random.nextLong();
+
+        for (int i = 0; i < 64; i++) {
+            castlingMask[i] = ALL_CASTLING;
+        }
+        castlingMask[0] &= ~WHITE_QUEENSIDE;
+        castlingMask[4] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+        castlingMask[7] &= ~WHITE_KINGSIDE;
+        castlingMask[56] &= ~BLACK_QUEENSIDE;
+        castlingMask[60] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+        castlingMask[63] &= ~BLACK_KINGSIDE;
+    }
+
+    // Piece sets and occupancy
+    private final long[] pieces = new long[12];
+    private final long[] teamOccupancy = new long[2];
+    private long occupied;
+    private final int[] squares = new int[64];
+
+    // Game state
+    private int sideToMove = Piece.WHITE;
+    private int castlingRights;
+    private int enPassantSquare = NO_SQUARE;
+    private int halfmoveClock;
+    private int fullmoveNumber = 1;
+    private long key;
+
+    // Incremental evaluation (scores from white's side)
+    private int midgameScore;
+    private int endgameScore;
+    private int phase;
+
+    // Undo information, one entry per ply
+    private int ply;
+    private final int[] moveFrom = new int[MAX_PLY];
+    private final int[] moveTo = new int[MAX_PLY];
+    private final int[] movePromotion = new int[MAX_PLY];
+    private final int[] capturedHistory = new int[MAX_PLY];
+    private final int[] castlingHistory = new int[MAX_PLY];
+    private final int[] enPassantHistory = new int[MAX_PLY];
+    private final int[] halfmoveHistory = new int[MAX_PLY];
+    private final long[] keyHistory = new long[MAX_PLY];
+
+    /**
+     * Creates an empty position
+     */
+    public Position() {
+        for (int i = 0; i < 64; i++) {
+            squares[i] = EMPTY;
+        }
+    }
+
+    /**
+     * Creates a position from a FEN string
+     * @param fen the FEN string
+     */
+    public Position(String fen) {
+        this();
+        String[] fields = fen.trim().split("\\s+");
+
+        // Piece placement, starting from the 8th rank
+        int x = 0;
+        int y = Board.SIZE - 1;
+        for (char c : fields[0].toCharArray()) {
+            if (c == '/') {
+                x = 0;
+                y--;
+            } else if (Character.isDigit(c)) {
+                x += c - '0';
+            } else {
+                int team = Character.isUpperCase(c) ? Piece.WHITE : Piece.BLACK;
+                Integer type = Piece.letterPieceMapping.get(String.valueOf(Character.toUpperCase(c)));
+                if (type == null) {
+                    throw new IllegalArgumentException("Invalid FEN piece: " + c);
+                }
+                put(team, type, square(x, y));
+                x++;
+            }
+        }
+
+        setSideToMove((fields.length > 1 && fields[1].equals("b")) ? Piece.BLACK : Piece.WHITE);
+
+        if (fields.length > 2) {
+            int rights = 0;
+            for (char c : fields[2].toCharArray()) {
+                switch (c) {
+                    case 'K' -> rights |= WHITE_KINGSIDE;
+                    case 'Q' -> rights |= WHITE_QUEENSIDE;
+                    case 'k' -> rights |= BLACK_KINGSIDE;
+                    case 'q' -> rights |= BLACK_QUEENSIDE;
+                    default -> {}
+                }
+            }
+            setCastlingRights(rights);
+        }
+
+        if (fields.length > 3 && !fields[3].equals("-")) {
+            setEnPassantSquare(square(fields[3].charAt(0) - 'a', fields[3].charAt(1) - '1'));
+        }
+        if (fields.length > 4) {
+            halfmoveClock = Integer.parseInt(fields[4]);
+        }
+        if (fields.length > 5) {
+            fullmoveNumber = Integer.parseInt(fields[5]);
+        }
+    }
+
+    /**
+     * Copy constructor (the undo history is not copied)
+     * @param other the position to copy
+     */
+    public Position(Position other) {
+        System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+        System.arraycopy(other.teamOccupancy, 0, teamOccupancy, 0, teamOccupancy.length);
+        System.arraycopy(other.squares, 0, squares, 0, squares.length);
+        occupied = other.occupied;
+        sideToMove = other.sideToMove;
+        castlingRights = other.castlingRights;
+        enPassantSquare = other.enPassantSquare;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        key = other.key;
+        midgameScore = other.midgameScore;
+        endgameScore = other.endgameScore;
+        phase = other.phase;
+    }
+
+    /**
+     * Converts board coordinates to a square index
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the square index
+     */
+    public static int square(int x, int y) {
+        return x + Board.SIZE * y;
+    }
+
+    /**
+     * Gets the index of a piece set
+     * @param team the piece's team
+     * @param type the piece's type
+     * @return the index of the piece set in the pieces array
+     */
+    public static int pieceIndex(int team, int type) {
+        return team * 6 + type - 1;
+    }
+
+    /**
+     * Places a piece on an empty square
+     * @param team the piece's team
+     * @param type the piece's type
+     * @param square the square index
+     */
+    public void put(int team, int type, int square) {
+        int index = pieceIndex(team, type);
+        long bit = 1L << square;
+        pieces[index] |= bit;
+        teamOccupancy[team] |= bit;
+        occupied |= bit;
+        squares[square] = index;
+        key ^= pieceKeys[index][square];
+        midgameScore += Evaluation.midgame(index, square);
+        endgameScore += Evaluation.endgame(index, square);
+        phase += Evaluation.phase(index);
+    }
+
+    /**
+     * Removes the piece on a square, if any
+     * @param square the square index
+     */
+    public void remove(int square) {
+        int index = squares[square];
+        if (index == EMPTY) {
+            return;
+        }
+        long bit = ~(1L << square);
+        pieces[index] &= bit;
+        teamOccupancy[index / 6] &= bit;
+        occupied &= bit;
+        squares[square] = EMPTY;
+        key ^= pieceKeys[index][square];
+        midgameScore -= Evaluation.midgame(index, square);
+        endgameScore -= Evaluation.endgame(index, square);
+        phase -= Evaluation.phase(index);
+    }
+
+    /**
+     * Moves a piece between squares without changing any game state
+     * @param from the square to move from
+     * @param to the empty square to move to
+     */
+    private void shift(int from, int to) {
+        int index = squares[from];
+        long bits = (1L << from) | (1L << to);
+        pieces[index] ^= bits;
+        teamOccupancy[index / 6] ^= bits;
+        occupied ^= bits;
+        squares[from] = EMPTY;
+        squares[to] = index;
+        key ^= pieceKeys[index][from] ^ pieceKeys[index][to];
+        midgameScore += Evaluation.midgame(index, to) - Evaluation.midgame(index, from);
+        endgameScore += Evaluation.endgame(index, to) - Evaluation.endgame(index, from);
+    }
+
+    /**
+     * Makes a packed move
+     * @param move the packed move
+     */
+    public void makeMove(int move) {
+        makeMove(Move.from(move), Move.to(move), Move.promotion(move));
+    }
+
+    /**
+     * Makes a move, updating castling rights, en passant and side to move
+     * @param from the square the piece moves from
+     * @param to the square the piece moves to
+     * @param promotion the type to promote to (0 if not a promotion)
+     */
+    public void makeMove(int from, int to, int promotion) {
+        int index = squares[from];
+        int team = index / 6;
+        int type = index % 6 + 1;
+        int captured = squares[to];
+        int capturedSquare = to;
+
+        // En passant captures a pawn behind the destination
+        if (type == Piece.PAWN && to == enPassantSquare) {
+            capturedSquare = (team == Piece.WHITE) ? to - Board.SIZE : to + Board.SIZE;
+            captured = squares[capturedSquare];
+        }
+
+        // Save undo information
+        moveFrom[ply] = from;
+        moveTo[ply] = to;
+        movePromotion[ply] = promotion;
+        capturedHistory[ply] = captured;
+        castlingHistory[ply] = castlingRights;
+        enPassantHistory[ply] = enPassantSquare;
+        halfmoveHistory[ply] = halfmoveClock;
+        keyHistory[ply] = key;
+        ply++;
+
+        if (captured != EMPTY) {
+            remove(capturedSquare);
+        }
+        shift(from, to);
+
+        if (promotion != 0) {
+            remove(to);
+            put(team, promotion, to);
+        }
+
+        // Castling also moves the rook
+        if (type == Piece.KING && to - from == 2) {
+            shift(to + 1, to - 1);
+        } else if (type == Piece.KING && from - to == 2) {
+            shift(to - 2, to + 1);
+        }
+
+        // A double pawn push leaves an en passant square behind it
+        setEnPassantSquare((type == Piece.PAWN && Math.abs(to - from) == 2 * Board.SIZE) ? (from + to) / 2
+                : NO_SQUARE);
+        setCastlingRights(castlingRights & castlingMask[from] & castlingMask[to]);
+        halfmoveClock = (type == Piece.PAWN || captured != EMPTY) ? 0 : halfmoveClock + 1;
+        if (team == Piece.BLACK) {
+            fullmoveNumber++;
+        }
+        setSideToMove(1 - sideToMove);
+    }
+
+    /**
+     * Unmakes the last move made with makeMove
+     */
+    public void unmakeMove() {
+        ply--;
+        int from = moveFrom[ply];
+        int to = moveTo[ply];
+        int promotion = movePromotion[ply];
+        int captured = capturedHistory[ply];
+
+        sideToMove = 1 - sideToMove;
+        int team = sideToMove;
+        if (team == Piece.BLACK) {
+            fullmoveNumber--;
+        }
+        castlingRights = castlingHistory[ply];
+        enPassantSquare = enPassantHistory[ply];
+        halfmoveClock = halfmoveHistory[ply];
+
+        if (promotion != 0) {
+            remove(to);
+            put(team, Piece.PAWN, to);
+        }
+        shift(to, from);
+
+        int type = squares[from] % 6 + 1;
+        if (type == Piece.KING && to - from == 2) {
+            shift(to - 1, to + 1);
+        } else if (type == Piece.KING && from - to == 2) {
+            shift(to + 1, to - 2);
+        }
+
+        // Put back the captured piece
+        if (captured != EMPTY) {
+            int capturedSquare = to;
+            if (type == Piece.PAWN && to == enPassantSquare) {
+                capturedSquare = (team == Piece.WHITE) ? to - Board.SIZE : to + Board.SIZE;
+            }
+            put(captured / 6, captured % 6 + 1, capturedSquare);
+        }
+        key = keyHistory[ply];
+    }
+
+    /**
+     * Passes the turn without moving a piece (for null-move pruning)
+     */
+    public void makeNullMove() {
+        moveFrom[ply] = NO_SQUARE;
+        movePromotion[ply] = 0;
+        capturedHistory[ply] = EMPTY;
+        castlingHistory[ply] = castlingRights;
+        enPassantHistory[ply] = enPassantSquare;
+        halfmoveHistory[ply] = halfmoveClock;
+        keyHistory[ply] = key;
+        ply++;
+
+        setEnPassantSquare(NO_SQUARE);
+        halfmoveClock++;
+        setSideToMove(1 - sideToMove);
+    }
+
+    /**
+     * Unmakes a null move made with makeNullMove
+     */
+    public void unmakeNullMove() {
+        ply--;
+        sideToMove = 1 - sideToMove;
+        enPassantSquare = enPassantHistory[ply];
+        halfmoveClock = halfmoveHistory[ply];
+        key = keyHistory[ply];
+    }
+
+    /**
+     * Returns whether a square is attacked by a team
+     *
+     * Works backwards from the square: a piece attacks it if the same piece
+     * type standing on the square would attack the piece.
+     * @param square the square index
+     * @param byTeam the attacking team
+     * @return whether any piece of the team attacks the square
+     */
+    public boolean isSquareAttacked(int square, int byTeam) {
+        int base = byTeam * 6;
+        if ((Attacks.pawn(1 - byTeam, square) & pieces[base + Piece.PAWN - 1]) != 0) {
+            return true;
+        }
+        if ((Attacks.knight(square) & pieces[base + Piece.KNIGHT - 1]) != 0) {
+            return true;
+        }
+        if ((Attacks.king(square) & pieces[base + Piece.KING - 1]) != 0) {
+            return true;
+        }
+        long queens = pieces[base + Piece.QUEEN - 1];
+        long diagonal = pieces[base + Piece.BISHOP - 1] | queens;
+        if (diagonal != 0 && (Attacks.bishop(square, occupied) & diagonal) != 0) {
+            return true;
+        }
+        long straight = pieces[base + Piece.ROOK - 1] | queens;
+        return straight != 0 && (Attacks.rook(square, occupied) & straight) != 0;
+    }
+
+    /**
+     * Gets all pieces of a team that attack a square, for exchange evaluation and king safety
+     * @param square the square index
+     * @param byTeam the attacking team
+     * @return the attacking pieces
+     */
+    public long getAttackers(int square, int byTeam) {
+        return getAttackers(square, byTeam, occupied);
+    }
+
+    /**
+     * Gets all pieces of a team that attack a square, with sliding pieces blocked by a given
+     * set of squares (to see through pieces that have moved or been captured)
+     * @param square the square index
+     * @param byTeam the attacking team
+     * @param occupied the occupied squares that block sliding pieces
+     * @return the attacking pieces
+     */
+    public long getAttackers(int square, int byTeam, long occupied) {
+        int base = byTeam * 6;
+        long queens = pieces[base + Piece.QUEEN - 1];
+        return (Attacks.pawn(1 - byTeam, square) & pieces[base + Piece.PAWN - 1]) |
+                (Attacks.knight(square) & pieces[base + Piece.KNIGHT - 1]) |
+                (Attacks.king(square) & pieces[base + Piece.KING - 1]) |
+                (Attacks.bishop(square, occupied) & (pieces[base + Piece.BISHOP - 1] | queens)) |
+                (Attacks.rook(square, occupied) & (pieces[base + Piece.ROOK - 1] | queens));
+    }
+
+    /**
+     * Returns whether a team's king is attacked
+     * @param team the team
+     * @return whether the team is in check
+     */
+    public boolean isInCheck(int team) {
+        int king = getKingSquare(team);
+        return king != NO_SQUARE && isSquareAttacked(king, 1 - team);
+    }
+
+    /**
+     * Gets the team of the piece on a square
+     * @param square the square index
+     * @return the piece's team (EMPTY if no piece)
+     */
+    public int getTeam(int square) {
+        int index = squares[square];
+        return (index == EMPTY) ? EMPTY : index / 6;
+    }
+
+    /**
+     * Gets the type of the piece on a square
+     * @param square the square index
+     * @return the piece's type (0 if no piece)
+     */
+    public int getType(int square) {
+        int index = squares[square];
+        return (index == EMPTY) ? 0 : index % 6 + 1;
+    }
+
+    /**
+     * Gets the bitboard of a team's pieces of a given type
+     * @param team the team
+     * @param type the piece type
+     * @return the bitboard of the pieces
+     */
+    public long getPieces(int team, int type) {
+        return pieces[pieceIndex(team, type)];
+    }
+
+    /**
+     * Gets the bitboard of all of a team's pieces
+     * @param team the team
+     * @return the team's occupancy bitboard
+     */
+    public long getOccupancy(int team) {
+        return teamOccupancy[team];
+    }
+
+    /**
+     * Gets the bitboard of all occupied squares
+     * @return the occupancy bitboard
+     */
+    public long getOccupied() {
+        return occupied;
+    }
+
+    /**
+     * Gets the square of a team's king
+     * @param team the team
+     * @return the king's square (NO_SQUARE if there is no king)
+     */
+    public int getKingSquare(int team) {
+        long king = pieces[pieceIndex(team, Piece.KING)];
+        return (king == 0) ? NO_SQUARE : Long.numberOfTrailingZeros(king);
+    }
+
+    /**
+     * Gets the team to move
+     * @return Piece.WHITE or Piece.BLACK
+     */
+    public int getSideToMove() {
+        return sideToMove;
+    }
+
+    /**
+     * Sets the team to move
+     * @param sideToMove Piece.WHITE or Piece.BLACK
+     */
+    public void setSideToMove(int sideToMove) {
+        if (sideToMove != this.sideToMove) {
+            key ^= sideKey;
+        }
+        this.sideToMove = sideToMove;
+    }
+
+    /**
+     * Gets the castling rights as a bitmask
+     * @return the castling rights
+     */
+    public int getCastlingRights() {
+        return castlingRights;
+    }
+
+    /**
+     * Sets the castling rights
+     * @param castlingRights the castling rights bitmask
+     */
+    public void setCastlingRights(int castlingRights) {
+        key ^= castlingKeys[this.castlingRights] ^ castlingKeys[castlingRights];
+        this.castlingRights = castlingRights;
+    }
+
+    /**
+     * Gets the en passant target square
+     * @return the en passant square (NO_SQUARE if none)
+     */
+    public int getEnPassantSquare() {
+        return enPassantSquare;
+    }
+
+    /**
+     * Sets the en passant target square
+     * @param enPassantSquare the en passant square (NO_SQUARE if none)
+     */
+    public void setEnPassantSquare(int enPassantSquare) {
+        key ^= enPassantKey(this.enPassantSquare) ^ enPassantKey(enPassantSquare);
+        this.enPassantSquare = enPassantSquare;
+    }
+
+    /**
+     * Gets the Zobrist key of the position
+     * @return the Zobrist key
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the Zobrist key of the position with a different side to move, castling rights and en passant square
+     * @param sideToMove the team to move
+     * @param castlingRights the castling rights bitmask
+     * @param enPassantSquare the en passant square (NO_SQUARE if none)
+     * @return the Zobrist key
+     */
+    public long getKey(int sideToMove, int castlingRights, int enPassantSquare) {
+        long stateKey = ((sideToMove == this.sideToMove) ? 0 : sideKey) ^
+                castlingKeys[this.castlingRights] ^ castlingKeys[castlingRights] ^
+                enPassantKey(this.enPassantSquare) ^ enPassantKey(enPassantSquare);
+        return key ^ stateKey;
+    }
+
+    /**
+     * Gets the Zobrist key of an en passant square
+     * @param square the en passant square (NO_SQUARE if none)
+     * @return the key of the square's file (0 if none)
+     */
+    private static long enPassantKey(int square) {
+        return (square == NO_SQUARE) ? 0 : enPassantKeys[square % Board.SIZE];
+    }
+
+    /**
+     * Gets the number of halfmoves since the last capture or pawn move
+     * @return the halfmove clock
+     */
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    /**
+     * Gets the running middlegame material and piece square score
+     * @return the score from white's side
+     */
+    public int getMidgameScore() {
+        return midgameScore;
+    }
+
+    /**
+     * Gets the running endgame material and piece square score
+     * @return the score from white's side
+     */
+    public int getEndgameScore() {
+        return endgameScore;
+    }
+
+    /**
+     * Gets the game phase from the minor and major pieces left (Evaluation.TOTAL_PHASE at the start)
+     * @return the game phase
+     */
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Gets the number of moves made on this position that can be unmade
+     * @return the current ply
+     */
+    public int getPly() {
+        return ply;
+    }
+
+    /**
+     * Converts the position to a FEN string
+     * @return the FEN string
+     */
+    public String toFEN() {
+        StringBuilder fen = new StringBuilder();
+        String letters = "PNBRQK";
+
+        for (int y = Board.SIZE - 1; y >= 0; y--) {
+            int empty = 0;
+            for (int x = 0; x < Board.SIZE; x++) {
+                int index = squares[square(x, y)];
+                if (index == EMPTY) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    fen.append(empty);
+                    empty = 0;
+                }
+                char letter = letters.charAt(index % 6);
+                fen.append(index / 6 == Piece.WHITE ? letter : Character.toLowerCase(letter));
+            }
+            if (empty > 0) {
+                fen.append(empty);
+            }
+            if (y > 0) {
+                fen.append('/');
+            }
+        }
+
+        fen.append(sideToMove == Piece.WHITE ? " w " : " b ");
+        if (castlingRights == 0) {
+            fen.append('-');
+        } else {
+            if ((castlingRights & WHITE_KINGSIDE) != 0) fen.append('K');
+            if ((castlingRights & WHITE_QUEENSIDE) != 0) fen.append('Q');
+            if ((castlingRights & BLACK_KINGSIDE) != 0) fen.append('k');
+            if ((castlingRights & BLACK_QUEENSIDE) != 0) fen.append('q');
+        }
+        fen.append(' ');
+        if (enPassantSquare == NO_SQUARE) {
+            fen.append('-');
+        } else {
+            fen.append((char) ('a' + enPassantSquare % Board.SIZE)).append(enPassantSquare / Board.SIZE + 1);
+        }
+        fen.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
+
+        return fen.toString();
+    }
+}
@@ -0,0 +1,412 @@
+package com.ook.game;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The board background and piece and highlight sprites, decoded once into packed pixel rasters that
+ * frames are blitted from. Each board size has its own pre-scaled atlas, and every atlas shares one
+ * palette so frames can also be drawn as palette indices
+ */
+public class SpriteAtlas {
+    // Locations
+    private static final String PATH = "/assets/";
+    private static final String BOARD = PATH + "board.png";
+    private static final String[] whitePieceImages = {"pawn_white.png", "knight_white.png", "bishop_white.png",
+            "rook_white.png", "queen_white.png", "king_white.png"};
+    private static final String[] blackPieceImages = {"pawn_black.png", "knight_black.png", "bishop_black.png",
+            "rook_black.png", "queen_black.png", "king_black.png"};
+    private static final String HIGHLIGHT_INITIAL = PATH + "highlight_initial.png";
+    private static final String HIGHLIGHT_DESTINATION = PATH + "highlight_destination.png";
+    private static final int TRANSPARENT_RGB = 0; // Sprite pixels with this value aren't drawn
+    private static final int MAX_COLORS = 256; // Palette size of an indexed PNG
+    private static final int SAMPLES = 4; // Samples per pixel along each axis when scaling sprites down
+
+    private static final Map<ImageFormat.Size, SpriteAtlas> atlases = new EnumMap<>(ImageFormat.Size.class);
+
+    private final int size; // Board width and height in pixels
+    private final int tileSize; // Square width and height in pixels
+    private final int[] palette; // RGB of each colour index, most common colours first
+    private final IndexColorModel colorModel;
+    private final Map<Integer, Byte> colorIndices = new HashMap<>();
+    private final int[] background; // Row-major
+    private final byte[] backgroundIndices;
+    private final Sprite[] pieces; // Indexed by team * 6 + type - 1
+    private final Sprite highlightInitial;
+    private final Sprite highlightDestination;
+
+    /**
+     * A square-sized image with its transparent pixels masked out
+     */
+    private static class Sprite {
+        private final int[] pixels; // Row-major
+        private final byte[] indices; // Palette index of each pixel
+        private final int[] spans; // (row, column, length) of each run of pixels to draw
+
+        /**
+         * Creates a sprite
+         * @param pixels the sprite's row-major pixels
+         * @param indices the pixels' palette indices
+         * @param size the sprite's width and height
+         */
+        private Sprite(int[] pixels, byte[] indices, int size) {
+            this.pixels = pixels;
+            this.indices = indices;
+
+            // Find the runs of non-transparent pixels in each row
+            int[] runs = new int[3 * size * size];
+            int count = 0;
+            for (int row = 0; row < size; row++) {
+                int column = 0;
+                while (column < size) {
+                    if (pixels[row * size + column] == TRANSPARENT_RGB) {
+                        column++;
+                        continue;
+                    }
+                    int start = column;
+                    while (column < size && pixels[row * size + column] != TRANSPARENT_RGB) {
+                        column++;
+                    }
+                    runs[count++] = row;
+                    runs[count++] = start;
+                    runs[count++] = column - start;
+                }
+            }
+            spans = Arrays.copyOf(runs, count);
+        }
+    }
+
+    /**
+     * Decodes the sprites at their own size and builds the palette from their colours
+     * @throws IOException if an image file is not found
+     */
+    private SpriteAtlas() throws IOException {
+        BufferedImage boardImage = read(BOARD);
+        size = boardImage.getWidth();
+        tileSize = size / Board.SIZE;
+        background = pixels(boardImage);
+
+        int[][] piecePixels = new int[2 * whitePieceImages.length][];
+        for (int i = 0; i < whitePieceImages.length; i++) {
+            piecePixels[Piece.WHITE * whitePieceImages.length + i] = pixels(read(PATH + whitePieceImages[i]));
+            piecePixels[Piece.BLACK * whitePieceImages.length + i] = pixels(read(PATH + blackPieceImages[i]));
+        }
+        int[] initialPixels = pixels(read(HIGHLIGHT_INITIAL));
+        int[] destinationPixels = pixels(read(HIGHLIGHT_DESTINATION));
+
+        // Count the colours that can be drawn
+        Map<Integer, Integer> counts = new HashMap<>();
+        List<int[]> images = new ArrayList<>(Arrays.asList(piecePixels));
+        images.add(background);
+        images.add(initialPixels);
+        images.add(destinationPixels);
+        for (int[] image : images) {
+            for (int pixel : image) {
+                if (pixel != TRANSPARENT_RGB) {
+                    counts.merge(pixel & 0xFFFFFF, 1, Integer::sum);
+                }
+            }
+        }
+
+        // The palette holds the most common colours (all of them for the bundled sprites)
+        palette = counts.entrySet().stream()
+                .sorted((a, b) -> b.getValue() - a.getValue())
+                .limit(MAX_COLORS)
+                .mapToInt(Map.Entry::getKey)
+                .toArray();
+        colorModel = colorModel(palette);
+
+        backgroundIndices = indices(background);
+        pieces = new Sprite[piecePixels.length];
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = sprite(piecePixels[i]);
+        }
+        highlightInitial = sprite(initialPixels);
+        highlightDestination = sprite(destinationPixels);
+    }
+
+    /**
+     * Scales another atlas's sprites down to a smaller size, keeping its palette
+     * @param source the atlas to scale
+     * @param tileSize the new square size in pixels
+     */
+    private SpriteAtlas(SpriteAtlas source, int tileSize) {
+        this.tileSize = tileSize;
+        size = tileSize * Board.SIZE;
+        palette = source.palette;
+        colorModel = source.colorModel;
+
+        background = scale(source.background, source.size, size);
+        backgroundIndices = indices(background);
+        pieces = new Sprite[source.pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = sprite(scale(source.pieces[i].pixels, source.tileSize, tileSize));
+        }
+        highlightInitial = sprite(scale(source.highlightInitial.pixels, source.tileSize, tileSize));
+        highlightDestination = sprite(scale(source.highlightDestination.pixels, source.tileSize, tileSize));
+    }
+
+    /**
+     * Gets the full-size atlas shared by every game, decoding it the first time
+     * @return the sprite atlas
+     * @throws IOException if an image file is not found
+     */
+    public static SpriteAtlas getDefault() throws IOException {
+        return get(ImageFormat.Size.LARGE);
+    }
+
+    /**
+     * Gets the atlas for a board size shared by every game, building it the first time
+     * @param boardSize the board size
+     * @return the sprite atlas
+     * @throws IOException if an image file is not found
+     */
+    public static synchronized SpriteAtlas get(ImageFormat.Size boardSize) throws IOException {
+        SpriteAtlas atlas = atlases.get(boardSize);
+        if (atlas == null) {
+            SpriteAtlas full = atlases.get(ImageFormat.Size.LARGE);
+            if (full == null) {
+                full = new SpriteAtlas();
+                atlases.put(ImageFormat.Size.LARGE, full);
+            }
+            atlas = boardSize.getTileSize() == full.tileSize ? full : new SpriteAtlas(full, boardSize.getTileSize());
+            atlases.put(boardSize, atlas);
+        }
+        return atlas;
+    }
+
+    /**
+     * Reads an image resource
+     * @param path the resource path
+     * @return the image
+     * @throws IOException if the image file is not found
+     */
+    private static BufferedImage read(String path) throws IOException {
+        try (InputStream in = SpriteAtlas.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("Missing image " + path);
+            }
+            return ImageIO.read(in);
+        }
+    }
+
+    /**
+     * Gets a square image's pixels
+     * @param image the image
+     * @return the row-major pixels
+     */
+    private static int[] pixels(BufferedImage image) {
+        int width = image.getWidth();
+        return image.getRGB(0, 0, width, width, null, 0, width);
+    }
+
+    /**
+     * Creates the colour model of a palette
+     * @param palette the palette colours
+     * @return the indexed colour model
+     */
+    private static IndexColorModel colorModel(int[] palette) {
+        byte[] red = new byte[palette.length];
+        byte[] green = new byte[palette.length];
+        byte[] blue = new byte[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            red[i] = (byte) (palette[i] >> 16);
+            green[i] = (byte) (palette[i] >> 8);
+            blue[i] = (byte) palette[i];
+        }
+        return new IndexColorModel(8, palette.length, red, green, blue);
+    }
+
+    /**
+     * Creates a sprite, indexing its pixels in the palette
+     * @param pixels the sprite's row-major pixels
+     * @return the sprite
+     */
+    private Sprite sprite(int[] pixels) {
+        return new Sprite(pixels, indices(pixels), tileSize);
+    }
+
+    /**
+     * Gets the palette index of each pixel
+     * @param pixels the pixels
+     * @return the palette indices
+     */
+    private byte[] indices(int[] pixels) {
+        byte[] indices = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] != TRANSPARENT_RGB) {
+                indices[i] = colorIndices.computeIfAbsent(pixels[i] & 0xFFFFFF, this::nearestColor);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Finds the palette colour closest to a colour
+     * @param rgb the colour
+     * @return the palette index
+     */
+    private byte nearestColor(int rgb) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++) {
+            int red = ((rgb >> 16) & 0xFF) - ((palette[i] >> 16) & 0xFF);
+            int green = ((rgb >> 8) & 0xFF) - ((palette[i] >> 8) & 0xFF);
+            int blue = (rgb & 0xFF) - (palette[i] & 0xFF);
+            int distance = red * red + green * green + blue * blue;
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return (byte) best;
+    }
+
+    /**
+     * Scales a square image down by averaging samples of each pixel's area. A pixel stays transparent
+     * unless most of its samples are drawn, and its colour is snapped to the palette
+     * @param pixels the image's row-major pixels
+     * @param from the image's width and height
+     * @param to the scaled width and height
+     * @return the scaled pixels
+     */
+    private int[] scale(int[] pixels, int from, int to) {
+        int[] scaled = new int[to * to];
+        double step = (double) from / to / SAMPLES;
+        for (int y = 0; y < to; y++) {
+            for (int x = 0; x < to; x++) {
+                int drawn = 0;
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    int row = (int) ((y * SAMPLES + sy + 0.5) * step);
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        int pixel = pixels[row * from + (int) ((x * SAMPLES + sx + 0.5) * step)];
+                        if (pixel != TRANSPARENT_RGB) {
+                            drawn++;
+                            red += (pixel >> 16) & 0xFF;
+                            green += (pixel >> 8) & 0xFF;
+                            blue += pixel & 0xFF;
+                        }
+                    }
+                }
+                if (2 * drawn > SAMPLES * SAMPLES) {
+                    int rgb = (red / drawn) << 16 | (green / drawn) << 8 | (blue / drawn);
+                    scaled[y * to + x] = 0xFF000000 | palette[nearestColor(rgb) & 0xFF];
+                }
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Gets the board width and height
+     * @return the size in pixels
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the colour model of frames drawn as palette indices
+     * @return the indexed colour model
+     */
+    public IndexColorModel getColorModel() {
+        return colorModel;
+    }
+
+    /**
+     * Gets the colour of an empty square
+     * @param x the square's column as drawn, from the left
+     * @param y the square's row as drawn, from the bottom
+     * @return the RGB colour at the square's centre
+     */
+    public int getSquareColor(int x, int y) {
+        int center = ((Board.SIZE - 1 - y) * tileSize + tileSize / 2) * size + x * tileSize + tileSize / 2;
+        return background[center] & 0xFFFFFF;
+    }
+
+    /**
+     * Gets the colour of a last move highlight
+     * @param initial whether to get the initial square's highlight rather than the destination's
+     * @return the RGB colour at the highlight's centre
+     */
+    public int getHighlightColor(boolean initial) {
+        Sprite highlight = initial ? highlightInitial : highlightDestination;
+        return highlight.pixels[(tileSize / 2) * tileSize + tileSize / 2] & 0xFFFFFF;
+    }
+
+    /**
+     * Draws the empty board over a frame
+     * @param frame the frame's row-major pixels, as an int[] of RGB or a byte[] of palette indices
+     */
+    public void drawBackground(Object frame) {
+        System.arraycopy(frame instanceof byte[] ? backgroundIndices : background, 0, frame, 0,
+                background.length);
+    }
+
+    /**
+     * Draws a square of the empty board over a frame
+     * @param frame the frame's row-major pixels, as an int[] of RGB or a byte[] of palette indices
+     * @param x the square's column as drawn, from the left
+     * @param y the square's row as drawn, from the bottom
+     */
+    public void drawSquare(Object frame, int x, int y) {
+        Object source = frame instanceof byte[] ? backgroundIndices : background;
+        int offset = (Board.SIZE - 1 - y) * tileSize * size + x * tileSize;
+        for (int row = 0; row < tileSize; row++) {
+            System.arraycopy(source, offset, frame, offset, tileSize);
+            offset += size;
+        }
+    }
+
+    /**
+     * Draws a piece on a frame
+     * @param frame the frame's row-major pixels, as an int[] of RGB or a byte[] of palette indices
+     * @param piece the piece
+     * @param x the square's column as drawn, from the left
+     * @param y the square's row as drawn, from the bottom
+     */
+    public void drawPiece(Object frame, Piece piece, int x, int y) {
+        draw(frame, pieces[piece.getTeam() * whitePieceImages.length + piece.getType() - 1], x, y);
+    }
+
+    /**
+     * Draws the last move's highlight on a frame
+     * @param frame the frame's row-major pixels, as an int[] of RGB or a byte[] of palette indices
+     * @param initial whether to draw the initial square's highlight rather than the destination's
+     * @param x the square's column as drawn, from the left
+     * @param y the square's row as drawn, from the bottom
+     */
+    public void drawHighlight(Object frame, boolean initial, int x, int y) {
+        draw(frame, initial ? highlightInitial : highlightDestination, x, y);
+    }
+
+    /**
+     * Blits a sprite's non-transparent runs onto a frame
+     * @param frame the frame's row-major pixels, as an int[] of RGB or a byte[] of palette indices
+     * @param sprite the sprite
+     * @param x the square's column as drawn, from the left
+     * @param y the square's row as drawn, from the bottom
+     */
+    private void draw(Object frame, Sprite sprite, int x, int y) {
+        Object source = frame instanceof byte[] ? sprite.indices : sprite.pixels;
+        int origin = (Board.SIZE - 1 - y) * tileSize * size + x * tileSize;
+        int[] spans = sprite.spans;
+        for (int i = 0; i < spans.length; i += 3) {
+            int row = spans[i];
+            int column = spans[i + 1];
+            System.arraycopy(source, row * tileSize + column, frame, origin + row * size + column, spans[i + 2]);
+        }
+    }
+}
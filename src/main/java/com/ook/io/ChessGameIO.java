@@ -1,5 +1,7 @@
 package com.ook.io;
 
+import com.ook.game.ImageFormat;
+
 /*
  * Chess game input output interface
  */
@@ -16,9 +18,19 @@ public interface ChessGameIO {
     void closeInputStream();
 
     /**
-     * Update function
+     * Shows the board after a move
+     * @param boardImage the encoded board image
+     * @param format the image's format
+     */
+    void update(byte[] boardImage, ImageFormat format);
+
+    /**
+     * Gets the format board images should be rendered in
+     * @return the image format
      */
-    void update();
+    default ImageFormat getImageFormat() {
+        return ImageFormat.DEFAULT;
+    }
 
     /**
      * Send PGN
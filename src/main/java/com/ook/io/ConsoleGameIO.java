@@ -1,6 +1,7 @@
 package com.ook.io;
 
 import com.ook.game.FileHandler;
+import com.ook.game.ImageFormat;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -11,16 +12,15 @@ import java.util.Scanner;
  */
 public class ConsoleGameIO implements ChessGameIO {
     private Scanner scanner;
-    private String whiteName;
-    private String blackName;
+    private String gameId;
 
     /**
      * ConsoleGame constructor
+     * @param gameId the ID the game's files are kept under
      */
-    public ConsoleGameIO(String whiteName, String blackName) {
+    public ConsoleGameIO(String gameId) {
         scanner = new Scanner(System.in);
-        this.whiteName = whiteName;
-        this.blackName = blackName;
+        this.gameId = gameId;
     }
     /**
      * Prints a message to the console
@@ -40,7 +40,7 @@ public class ConsoleGameIO implements ChessGameIO {
     /**
      * Update function not needed for console game
      */
-    public void update() {}
+    public void update(byte[] boardImage, ImageFormat format) {}
 
     /**
      * Sends PGN as text to the console
@@ -49,7 +49,7 @@ public class ConsoleGameIO implements ChessGameIO {
         // Print lines of PGN file
         System.out.println("\nPGN:");
         try (BufferedReader br = new BufferedReader(
-                new FileReader(FileHandler.getPGNFile(whiteName, blackName)))) {
+                new FileReader(FileHandler.getPGNFile(gameId)))) {
             String line;
             while ((line = br.readLine()) != null) {
                 System.out.println(line);
@@ -63,7 +63,7 @@ public class ConsoleGameIO implements ChessGameIO {
      * Clean up files in bin
      */
     public void cleanup() {
-        FileHandler.deleteDirectory(whiteName, blackName);
+        FileHandler.deleteDirectory(gameId);
     }
 
     /**